@@ -5,9 +5,11 @@ import com.light.jlox.Expr.Binary;
 import com.light.jlox.Expr.Call;
 import com.light.jlox.Expr.Get;
 import com.light.jlox.Expr.Grouping;
+import com.light.jlox.Expr.Index;
 import com.light.jlox.Expr.Literal;
 import com.light.jlox.Expr.Logical;
 import com.light.jlox.Expr.Set;
+import com.light.jlox.Expr.SetIndex;
 import com.light.jlox.Expr.Super;
 import com.light.jlox.Expr.This;
 import com.light.jlox.Expr.Unary;
@@ -89,6 +91,16 @@ class AstPrinter implements Expr.Visitor<String> {
         throw new UnsupportedOperationException("Unimplemented method 'visitSetExpr'");
     }
 
+    @Override
+    public String visitIndexExpr(Index expr) {
+        return parenthesize("index", expr.object, expr.index);
+    }
+
+    @Override
+    public String visitSetIndexExpr(SetIndex expr) {
+        return parenthesize("set-index", expr.object, expr.index, expr.value);
+    }
+
     @Override
     public String visitThisExpr(This expr) {
         // TODO Auto-generated method stub
@@ -0,0 +1,25 @@
+package com.light.jlox;
+
+/**
+ * A variable captured by a closure. The scope declaring the variable and
+ * every function capturing it share the cell, so assignments on either
+ * side are seen by the other. A variable is moved into a cell the first
+ * time a function captures it; until then its scope holds the bare value.
+ */
+final class Cell {
+    // fibers can share cells; volatile makes each read and write atomic
+    // and visible without a lock, whichever context the cell belongs to
+    private volatile Object value;
+
+    Cell(Object value) {
+        this.value = value;
+    }
+
+    Object get() {
+        return value;
+    }
+
+    void set(Object value) {
+        this.value = value;
+    }
+}
@@ -0,0 +1,61 @@
+package com.light.jlox;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tree interpreter that counts every statement and expression it runs into
+ * LoxCounters. The counting lives only in this subclass, which is chosen
+ * when a context is created, so the plain interpreters never test for it.
+ */
+class CountingInterpreter extends Interpreter {
+    private final LoxCounters counters;
+
+    CountingInterpreter(LoxOutput output, Globals.Slots slots, LoxCounters counters) {
+        super(output, slots);
+        this.counters = counters;
+    }
+
+    private CountingInterpreter(LoxOutput output, Globals globals, LoxCounters counters) {
+        super(output, globals);
+        this.counters = counters;
+    }
+
+    @Override
+    Interpreter fork() {
+        return inherit(new CountingInterpreter(output, globals, counters));
+    }
+
+    @Override
+    void interpret(LoxScript script) {
+        for (Map.Entry<String, LoxScript> module : script.modules.entrySet()) {
+            counters.prepare(module.getKey(), module.getValue());
+        }
+        counters.prepare(null, script);
+        super.interpret(script);
+    }
+
+    @Override
+    void execute(Stmt statement) {
+        counters.count(statement);
+        super.execute(statement);
+    }
+
+    @Override
+    Object evaluate(Expr expr) {
+        counters.count(expr);
+        return super.evaluate(expr);
+    }
+
+    @Override
+    Object binary(Token operator, Object left, Object right) {
+        counters.recordBinary(operator, left, right);
+        return super.binary(operator, left, right);
+    }
+
+    @Override
+    Object call(Token paren, Object callee, List<Object> arguments) {
+        counters.recordCall(paren, callee);
+        return super.call(paren, callee, arguments);
+    }
+}
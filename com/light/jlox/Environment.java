@@ -3,26 +3,33 @@ package com.light.jlox;
 import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * A local scope. Each is only ever used by the thread running the call or
+ * block that created it: fibers and parallel calls start from the globals,
+ * which lock themselves once shared, see Globals, and reach variables of
+ * enclosing functions through cells. So scopes never need to synchronize.
+ */
 class Environment {
+    static final Object MISSING = new Object();
+
     private final Map<String, Object> values = new HashMap<>();
 
     final Environment enclosing;
 
     Environment() {
         this.enclosing = null;
+        if (LoxMetrics.ENABLED) LoxMetrics.ENVIRONMENTS.increment();
     }
 
     Environment(Environment enclosing) {
         this.enclosing = enclosing;
+        if (LoxMetrics.ENABLED) LoxMetrics.ENVIRONMENTS.increment();
     }
 
     Object get(Token name) {
-        if (values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme);
-        }
-
-        if (enclosing != null) {
-            return enclosing.get(name);
+        for (Environment environment = this; environment != null; environment = environment.enclosing) {
+            Object value = environment.find(name.lexeme);
+            if (value != MISSING) return value;
         }
 
         throw new RuntimeError(name, "Undefined variable '"+ name.lexeme+"'.");
@@ -33,21 +40,16 @@ class Environment {
     }
 
     public void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
-            return;
-        }
-
-        if (enclosing != null) {
-            enclosing.assign(name, value);
-            return;
+        for (Environment environment = this; environment != null; environment = environment.enclosing) {
+            if (environment.replace(name.lexeme, value)) return;
         }
 
         throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
     }
 
     public Object getAt(Integer distance, String lexeme) {
-        return ancestor(distance).values.get(lexeme);
+        Object value = ancestor(distance).find(lexeme);
+        return value == MISSING ? null : value;
     }
 
     private Environment ancestor(int distance) {
@@ -59,6 +61,33 @@ class Environment {
     }
 
     public void assignAt(Integer distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);
+        Environment environment = ancestor(distance);
+        if (!environment.replace(name.lexeme, value)) environment.define(name.lexeme, value);
+    }
+
+    /** The cell holding a variable, moving the variable into one if it isn't yet. */
+    Cell capture(int distance, String name) {
+        Environment environment = ancestor(distance);
+        Object value = environment.values.get(name);
+        if (value instanceof Cell) return (Cell)value;
+        Cell cell = new Cell(value);
+        environment.values.put(name, cell);
+        return cell;
+    }
+
+    Object find(String name) {
+        Object value = values.getOrDefault(name, MISSING);
+        return value instanceof Cell ? ((Cell)value).get() : value;
+    }
+
+    boolean replace(String name, Object value) {
+        Object current = values.getOrDefault(name, MISSING);
+        if (current == MISSING) return false;
+        if (current instanceof Cell) {
+            ((Cell)current).set(value);
+        } else {
+            values.put(name, value);
+        }
+        return true;
     }
 }
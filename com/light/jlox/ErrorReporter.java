@@ -0,0 +1,36 @@
+package com.light.jlox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the static errors found while scanning, parsing and resolving
+ * one piece of source, so compilations don't share any global state.
+ */
+class ErrorReporter {
+    private final List<String> errors = new ArrayList<>();
+
+    void error(int line, String message) {
+        report(line, "", message);
+    }
+
+    void error(Token token, String message) {
+        if (token.type == TokenType.EOF) {
+            report(token.line, " at end", message);
+        } else {
+            report(token.line, " at '" + token.lexeme + "'", message);
+        }
+    }
+
+    private void report(int line, String where, String message) {
+        errors.add("[line " + line + "] Error" + where + ": " + message);
+    }
+
+    boolean hadError() {
+        return !errors.isEmpty();
+    }
+
+    List<String> errors() {
+        return errors;
+    }
+}
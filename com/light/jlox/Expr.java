@@ -9,9 +9,11 @@ abstract class Expr {
         R visitCallExpr(Call expr);
         R visitGroupingExpr(Grouping expr);
         R visitGetExpr(Get expr);
+        R visitIndexExpr(Index expr);
         R visitLiteralExpr(Literal expr);
         R visitLogicalExpr(Logical expr);
         R visitSetExpr(Set expr);
+        R visitSetIndexExpr(SetIndex expr);
         R visitSuperExpr(Super expr);
         R visitThisExpr(This expr);
         R visitUnaryExpr(Unary expr);
@@ -21,6 +23,10 @@ abstract class Expr {
     static class Assign extends Expr {
         final Token name;
         final Expr value;
+        int depth = -1;
+        int slot = -1;
+        int upvalue = -1;
+        int fused = -1;
         Assign(Token name, Expr value) {
             this.name = name;
             this.value = value;
@@ -35,6 +41,7 @@ abstract class Expr {
         final Expr left;
         final Token operator;
         final Expr right;
+        int fused = -1;
         Binary(Expr left, Token operator, Expr right) {
             this.left = left;
             this.operator = operator;
@@ -85,9 +92,26 @@ abstract class Expr {
             return visitor.visitGetExpr(this);
         }
     }
+    static class Index extends Expr {
+        final Expr object;
+        final Token bracket;
+        final Expr index;
+        Index(Expr object, Token bracket, Expr index) {
+            this.object = object;
+            this.bracket = bracket;
+            this.index = index;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitIndexExpr(this);
+        }
+    }
     static class Literal extends Expr {
+        final Token token;
         final Object value;
-        Literal(Object value) {
+        Literal(Token token, Object value) {
+            this.token = token;
             this.value = value;
         }
 
@@ -115,6 +139,7 @@ abstract class Expr {
         final Expr object;
         final Token name;
         final Expr value;
+        int fused = -1;
         Set(Expr object, Token name, Expr value) {
             this.object = object;
             this.name = name;
@@ -126,9 +151,28 @@ abstract class Expr {
             return visitor.visitSetExpr(this);
         }
     }
+    static class SetIndex extends Expr {
+        final Expr object;
+        final Token bracket;
+        final Expr index;
+        final Expr value;
+        SetIndex(Expr object, Token bracket, Expr index, Expr value) {
+            this.object = object;
+            this.bracket = bracket;
+            this.index = index;
+            this.value = value;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitSetIndexExpr(this);
+        }
+    }
     static class Super extends Expr {
         final Token keyword;
         final Token method;
+        int upvalue = -1;
+        int thisUpvalue = -1;
         Super(Token keyword, Token method) {
             this.keyword = keyword;
             this.method = method;
@@ -141,6 +185,7 @@ abstract class Expr {
     }
     static class This extends Expr {
         final Token keyword;
+        int upvalue = -1;
         This(Token keyword) {
             this.keyword = keyword;
         }
@@ -165,6 +210,9 @@ abstract class Expr {
     }
     static class Variable extends Expr {
         final Token name;
+        int depth = -1;
+        int slot = -1;
+        int upvalue = -1;
         Variable(Token name) {
             this.name = name;
         }
@@ -0,0 +1,414 @@
+package com.light.jlox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+final class FlatAst {
+    static final int EXPR_ASSIGN = 0;
+    static final int EXPR_BINARY = 1;
+    static final int EXPR_CALL = 2;
+    static final int EXPR_GROUPING = 3;
+    static final int EXPR_GET = 4;
+    static final int EXPR_INDEX = 5;
+    static final int EXPR_LITERAL = 6;
+    static final int EXPR_LOGICAL = 7;
+    static final int EXPR_SET = 8;
+    static final int EXPR_SETINDEX = 9;
+    static final int EXPR_SUPER = 10;
+    static final int EXPR_THIS = 11;
+    static final int EXPR_UNARY = 12;
+    static final int EXPR_VARIABLE = 13;
+    static final int STMT_BLOCK = 14;
+    static final int STMT_BREAK = 15;
+    static final int STMT_CLASS = 16;
+    static final int STMT_EXPRESSION = 17;
+    static final int STMT_FUNCTION = 18;
+    static final int STMT_IF = 19;
+    static final int STMT_IMPORT = 20;
+    static final int STMT_PRINT = 21;
+    static final int STMT_RETURN = 22;
+    static final int STMT_VAR = 23;
+    static final int STMT_WHILE = 24;
+
+    static final int KIND = 0;
+    static final int DEPTH = 1;
+    static final int EXPR_ASSIGN_NAME = 2;
+    static final int EXPR_ASSIGN_VALUE = 3;
+    static final int EXPR_ASSIGN_SLOT = 4;
+    static final int EXPR_ASSIGN_UPVALUE = 5;
+    static final int EXPR_ASSIGN_FUSED = 6;
+    static final int EXPR_BINARY_LEFT = 2;
+    static final int EXPR_BINARY_OPERATOR = 3;
+    static final int EXPR_BINARY_RIGHT = 4;
+    static final int EXPR_BINARY_FUSED = 5;
+    static final int EXPR_CALL_CALLEE = 2;
+    static final int EXPR_CALL_PAREN = 3;
+    static final int EXPR_CALL_ARGUMENTS = 4;
+    static final int EXPR_GROUPING_EXPRESSION = 2;
+    static final int EXPR_GET_OBJECT = 2;
+    static final int EXPR_GET_NAME = 3;
+    static final int EXPR_INDEX_OBJECT = 2;
+    static final int EXPR_INDEX_BRACKET = 3;
+    static final int EXPR_INDEX_INDEX = 4;
+    static final int EXPR_LITERAL_TOKEN = 2;
+    static final int EXPR_LITERAL_VALUE = 3;
+    static final int EXPR_LOGICAL_LEFT = 2;
+    static final int EXPR_LOGICAL_OPERATOR = 3;
+    static final int EXPR_LOGICAL_RIGHT = 4;
+    static final int EXPR_SET_OBJECT = 2;
+    static final int EXPR_SET_NAME = 3;
+    static final int EXPR_SET_VALUE = 4;
+    static final int EXPR_SET_FUSED = 5;
+    static final int EXPR_SETINDEX_OBJECT = 2;
+    static final int EXPR_SETINDEX_BRACKET = 3;
+    static final int EXPR_SETINDEX_INDEX = 4;
+    static final int EXPR_SETINDEX_VALUE = 5;
+    static final int EXPR_SUPER_KEYWORD = 2;
+    static final int EXPR_SUPER_METHOD = 3;
+    static final int EXPR_SUPER_UPVALUE = 4;
+    static final int EXPR_SUPER_THISUPVALUE = 5;
+    static final int EXPR_THIS_KEYWORD = 2;
+    static final int EXPR_THIS_UPVALUE = 3;
+    static final int EXPR_UNARY_OPERATOR = 2;
+    static final int EXPR_UNARY_RIGHT = 3;
+    static final int EXPR_VARIABLE_NAME = 2;
+    static final int EXPR_VARIABLE_SLOT = 3;
+    static final int EXPR_VARIABLE_UPVALUE = 4;
+    static final int STMT_BLOCK_STATEMENTS = 2;
+    static final int STMT_BREAK_KEYWORD = 2;
+    static final int STMT_CLASS_NAME = 2;
+    static final int STMT_CLASS_SUPERCLASS = 3;
+    static final int STMT_CLASS_METHODS = 4;
+    static final int STMT_EXPRESSION_EXPRESSION = 2;
+    static final int STMT_FUNCTION_NAME = 2;
+    static final int STMT_FUNCTION_PARAMS = 3;
+    static final int STMT_FUNCTION_BODY = 4;
+    static final int STMT_FUNCTION_CAPTURES = 5;
+    static final int STMT_IF_CONDITION = 2;
+    static final int STMT_IF_THENBRANCH = 3;
+    static final int STMT_IF_ELSEBRANCH = 4;
+    static final int STMT_IF_FUSED = 5;
+    static final int STMT_IMPORT_KEYWORD = 2;
+    static final int STMT_IMPORT_PATH = 3;
+    static final int STMT_IMPORT_FILE = 4;
+    static final int STMT_PRINT_KEYWORD = 2;
+    static final int STMT_PRINT_EXPRESSION = 3;
+    static final int STMT_RETURN_KEYWORD = 2;
+    static final int STMT_RETURN_VALUE = 3;
+    static final int STMT_VAR_NAME = 2;
+    static final int STMT_VAR_INITIALIZER = 3;
+    static final int STMT_WHILE_KEYWORD = 2;
+    static final int STMT_WHILE_CONDITION = 3;
+    static final int STMT_WHILE_BODY = 4;
+    static final int STMT_WHILE_FUSED = 5;
+
+    final int[] nodes;
+    final Token[] tokens;
+    final Object[] constants;
+    final int statements;
+    // the script flattened, for snapshots of its functions
+    final LoxScript script;
+
+    private FlatAst(int[] nodes, Token[] tokens, Object[] constants, int statements, LoxScript script) {
+        this.nodes = nodes;
+        this.tokens = tokens;
+        this.constants = constants;
+        this.statements = statements;
+        this.script = script;
+    }
+
+    static FlatAst flatten(LoxScript script, List<Stmt> statements) {
+        Builder builder = new Builder();
+        int root = builder.stmts(statements);
+        return new FlatAst(Arrays.copyOf(builder.nodes, builder.size),
+            builder.tokens.toArray(new Token[0]), builder.constants.toArray(), root, script);
+    }
+
+    private static class Builder implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {
+        private final List<Token> tokens = new ArrayList<>();
+        private final List<Object> constants = new ArrayList<>();
+        private int[] nodes = new int[256];
+        private int size = 0;
+
+        private int reserve(int length) {
+            if (size + length > nodes.length) {
+                nodes = Arrays.copyOf(nodes, Math.max(nodes.length * 2, size + length));
+            }
+            int node = size;
+            size += length;
+            return node;
+        }
+
+        private int node(int kind, int depth, int fields) {
+            int node = reserve(2 + fields);
+            nodes[node + KIND] = kind;
+            nodes[node + DEPTH] = depth;
+            return node;
+        }
+
+        // children may grow the array, so they are always flattened before the store
+        private void set(int slot, int value) {
+            nodes[slot] = value;
+        }
+
+        private int expr(Expr expr) {
+            return expr == null ? -1 : expr.accept(this);
+        }
+
+        private int stmt(Stmt stmt) {
+            return stmt == null ? -1 : stmt.accept(this);
+        }
+
+        private int token(Token token) {
+            if (token == null) return -1;
+            tokens.add(token);
+            return tokens.size() - 1;
+        }
+
+        private int constant(Object value) {
+            constants.add(value);
+            return constants.size() - 1;
+        }
+
+        private int exprs(List<Expr> list) {
+            int node = reserve(1 + list.size());
+            nodes[node] = list.size();
+            for (int i = 0; i < list.size(); i++) set(node + 1 + i, expr(list.get(i)));
+            return node;
+        }
+
+        private int stmts(List<? extends Stmt> list) {
+            int node = reserve(1 + list.size());
+            nodes[node] = list.size();
+            for (int i = 0; i < list.size(); i++) set(node + 1 + i, stmt(list.get(i)));
+            return node;
+        }
+
+        private int tokens(List<Token> list) {
+            int node = reserve(1 + list.size());
+            nodes[node] = list.size();
+            for (int i = 0; i < list.size(); i++) set(node + 1 + i, token(list.get(i)));
+            return node;
+        }
+
+        @Override
+        public Integer visitAssignExpr(Expr.Assign expr) {
+            int node = node(EXPR_ASSIGN, expr.depth, 5);
+            set(node + EXPR_ASSIGN_NAME, token(expr.name));
+            set(node + EXPR_ASSIGN_VALUE, expr(expr.value));
+            set(node + EXPR_ASSIGN_SLOT, expr.slot);
+            set(node + EXPR_ASSIGN_UPVALUE, expr.upvalue);
+            set(node + EXPR_ASSIGN_FUSED, expr.fused);
+            return node;
+        }
+
+        @Override
+        public Integer visitBinaryExpr(Expr.Binary expr) {
+            int node = node(EXPR_BINARY, -1, 4);
+            set(node + EXPR_BINARY_LEFT, expr(expr.left));
+            set(node + EXPR_BINARY_OPERATOR, token(expr.operator));
+            set(node + EXPR_BINARY_RIGHT, expr(expr.right));
+            set(node + EXPR_BINARY_FUSED, expr.fused);
+            return node;
+        }
+
+        @Override
+        public Integer visitCallExpr(Expr.Call expr) {
+            int node = node(EXPR_CALL, -1, 3);
+            set(node + EXPR_CALL_CALLEE, expr(expr.callee));
+            set(node + EXPR_CALL_PAREN, token(expr.paren));
+            set(node + EXPR_CALL_ARGUMENTS, exprs(expr.arguments));
+            return node;
+        }
+
+        @Override
+        public Integer visitGroupingExpr(Expr.Grouping expr) {
+            int node = node(EXPR_GROUPING, -1, 1);
+            set(node + EXPR_GROUPING_EXPRESSION, expr(expr.expression));
+            return node;
+        }
+
+        @Override
+        public Integer visitGetExpr(Expr.Get expr) {
+            int node = node(EXPR_GET, -1, 2);
+            set(node + EXPR_GET_OBJECT, expr(expr.object));
+            set(node + EXPR_GET_NAME, token(expr.name));
+            return node;
+        }
+
+        @Override
+        public Integer visitIndexExpr(Expr.Index expr) {
+            int node = node(EXPR_INDEX, -1, 3);
+            set(node + EXPR_INDEX_OBJECT, expr(expr.object));
+            set(node + EXPR_INDEX_BRACKET, token(expr.bracket));
+            set(node + EXPR_INDEX_INDEX, expr(expr.index));
+            return node;
+        }
+
+        @Override
+        public Integer visitLiteralExpr(Expr.Literal expr) {
+            int node = node(EXPR_LITERAL, -1, 2);
+            set(node + EXPR_LITERAL_TOKEN, token(expr.token));
+            set(node + EXPR_LITERAL_VALUE, constant(expr.value));
+            return node;
+        }
+
+        @Override
+        public Integer visitLogicalExpr(Expr.Logical expr) {
+            int node = node(EXPR_LOGICAL, -1, 3);
+            set(node + EXPR_LOGICAL_LEFT, expr(expr.left));
+            set(node + EXPR_LOGICAL_OPERATOR, token(expr.operator));
+            set(node + EXPR_LOGICAL_RIGHT, expr(expr.right));
+            return node;
+        }
+
+        @Override
+        public Integer visitSetExpr(Expr.Set expr) {
+            int node = node(EXPR_SET, -1, 4);
+            set(node + EXPR_SET_OBJECT, expr(expr.object));
+            set(node + EXPR_SET_NAME, token(expr.name));
+            set(node + EXPR_SET_VALUE, expr(expr.value));
+            set(node + EXPR_SET_FUSED, expr.fused);
+            return node;
+        }
+
+        @Override
+        public Integer visitSetIndexExpr(Expr.SetIndex expr) {
+            int node = node(EXPR_SETINDEX, -1, 4);
+            set(node + EXPR_SETINDEX_OBJECT, expr(expr.object));
+            set(node + EXPR_SETINDEX_BRACKET, token(expr.bracket));
+            set(node + EXPR_SETINDEX_INDEX, expr(expr.index));
+            set(node + EXPR_SETINDEX_VALUE, expr(expr.value));
+            return node;
+        }
+
+        @Override
+        public Integer visitSuperExpr(Expr.Super expr) {
+            int node = node(EXPR_SUPER, -1, 4);
+            set(node + EXPR_SUPER_KEYWORD, token(expr.keyword));
+            set(node + EXPR_SUPER_METHOD, token(expr.method));
+            set(node + EXPR_SUPER_UPVALUE, expr.upvalue);
+            set(node + EXPR_SUPER_THISUPVALUE, expr.thisUpvalue);
+            return node;
+        }
+
+        @Override
+        public Integer visitThisExpr(Expr.This expr) {
+            int node = node(EXPR_THIS, -1, 2);
+            set(node + EXPR_THIS_KEYWORD, token(expr.keyword));
+            set(node + EXPR_THIS_UPVALUE, expr.upvalue);
+            return node;
+        }
+
+        @Override
+        public Integer visitUnaryExpr(Expr.Unary expr) {
+            int node = node(EXPR_UNARY, -1, 2);
+            set(node + EXPR_UNARY_OPERATOR, token(expr.operator));
+            set(node + EXPR_UNARY_RIGHT, expr(expr.right));
+            return node;
+        }
+
+        @Override
+        public Integer visitVariableExpr(Expr.Variable expr) {
+            int node = node(EXPR_VARIABLE, expr.depth, 3);
+            set(node + EXPR_VARIABLE_NAME, token(expr.name));
+            set(node + EXPR_VARIABLE_SLOT, expr.slot);
+            set(node + EXPR_VARIABLE_UPVALUE, expr.upvalue);
+            return node;
+        }
+
+        @Override
+        public Integer visitBlockStmt(Stmt.Block stmt) {
+            int node = node(STMT_BLOCK, -1, 1);
+            set(node + STMT_BLOCK_STATEMENTS, stmts(stmt.statements));
+            return node;
+        }
+
+        @Override
+        public Integer visitBreakStmt(Stmt.Break stmt) {
+            int node = node(STMT_BREAK, -1, 1);
+            set(node + STMT_BREAK_KEYWORD, token(stmt.keyword));
+            return node;
+        }
+
+        @Override
+        public Integer visitClassStmt(Stmt.Class stmt) {
+            int node = node(STMT_CLASS, -1, 3);
+            set(node + STMT_CLASS_NAME, token(stmt.name));
+            set(node + STMT_CLASS_SUPERCLASS, expr(stmt.superclass));
+            set(node + STMT_CLASS_METHODS, stmts(stmt.methods));
+            return node;
+        }
+
+        @Override
+        public Integer visitExpressionStmt(Stmt.Expression stmt) {
+            int node = node(STMT_EXPRESSION, -1, 1);
+            set(node + STMT_EXPRESSION_EXPRESSION, expr(stmt.expression));
+            return node;
+        }
+
+        @Override
+        public Integer visitFunctionStmt(Stmt.Function stmt) {
+            int node = node(STMT_FUNCTION, -1, 4);
+            set(node + STMT_FUNCTION_NAME, token(stmt.name));
+            set(node + STMT_FUNCTION_PARAMS, tokens(stmt.params));
+            set(node + STMT_FUNCTION_BODY, stmts(stmt.body));
+            set(node + STMT_FUNCTION_CAPTURES, constant(stmt.captures));
+            return node;
+        }
+
+        @Override
+        public Integer visitIfStmt(Stmt.If stmt) {
+            int node = node(STMT_IF, -1, 4);
+            set(node + STMT_IF_CONDITION, expr(stmt.condition));
+            set(node + STMT_IF_THENBRANCH, stmt(stmt.thenBranch));
+            set(node + STMT_IF_ELSEBRANCH, stmt(stmt.elseBranch));
+            set(node + STMT_IF_FUSED, stmt.fused);
+            return node;
+        }
+
+        @Override
+        public Integer visitImportStmt(Stmt.Import stmt) {
+            int node = node(STMT_IMPORT, -1, 3);
+            set(node + STMT_IMPORT_KEYWORD, token(stmt.keyword));
+            set(node + STMT_IMPORT_PATH, token(stmt.path));
+            set(node + STMT_IMPORT_FILE, constant(stmt.file));
+            return node;
+        }
+
+        @Override
+        public Integer visitPrintStmt(Stmt.Print stmt) {
+            int node = node(STMT_PRINT, -1, 2);
+            set(node + STMT_PRINT_KEYWORD, token(stmt.keyword));
+            set(node + STMT_PRINT_EXPRESSION, expr(stmt.expression));
+            return node;
+        }
+
+        @Override
+        public Integer visitReturnStmt(Stmt.Return stmt) {
+            int node = node(STMT_RETURN, -1, 2);
+            set(node + STMT_RETURN_KEYWORD, token(stmt.keyword));
+            set(node + STMT_RETURN_VALUE, expr(stmt.value));
+            return node;
+        }
+
+        @Override
+        public Integer visitVarStmt(Stmt.Var stmt) {
+            int node = node(STMT_VAR, -1, 2);
+            set(node + STMT_VAR_NAME, token(stmt.name));
+            set(node + STMT_VAR_INITIALIZER, expr(stmt.initializer));
+            return node;
+        }
+
+        @Override
+        public Integer visitWhileStmt(Stmt.While stmt) {
+            int node = node(STMT_WHILE, -1, 4);
+            set(node + STMT_WHILE_KEYWORD, token(stmt.keyword));
+            set(node + STMT_WHILE_CONDITION, expr(stmt.condition));
+            set(node + STMT_WHILE_BODY, stmt(stmt.body));
+            set(node + STMT_WHILE_FUSED, stmt.fused);
+            return node;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.light.jlox;
+
+import static com.light.jlox.FlatAst.*;
+
+import java.util.List;
+
+class FlatFunction implements LoxMethod {
+
+    final FlatAst ast;
+    final int declaration;
+    final Cell[] upvalues;
+
+    final boolean isInitializer;
+
+    FlatFunction(FlatAst ast, int declaration, Cell[] upvalues, boolean isInitializer) {
+        this.ast = ast;
+        this.declaration = declaration;
+        this.upvalues = upvalues;
+        this.isInitializer = isInitializer;
+    }
+
+    @Override
+    public int arity() {
+        return ast.nodes[ast.nodes[declaration + STMT_FUNCTION_PARAMS]];
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        Environment environment = new Environment();
+        int params = ast.nodes[declaration + STMT_FUNCTION_PARAMS];
+        for (int i = 0; i < ast.nodes[params]; i++) {
+            environment.define(ast.tokens[ast.nodes[params + 1 + i]].lexeme, arguments.get(i));
+        }
+
+        Cell[] previous = interpreter.upvalues;
+        interpreter.upvalues = upvalues;
+        try {
+            ((FlatInterpreter)interpreter).executeBody(ast, ast.nodes[declaration + STMT_FUNCTION_BODY], environment);
+        } catch (Return returnValue) {
+            if (isInitializer) return upvalues[0].get();
+            return returnValue.value;
+        } finally {
+            interpreter.upvalues = previous;
+        }
+
+        if (isInitializer) return upvalues[0].get();
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "<fn " + ast.tokens[ast.nodes[declaration + STMT_FUNCTION_NAME]].lexeme + ">";
+    }
+
+    @Override
+    public FlatFunction bind(LoxInstance loxInstance) {
+        if (LoxMetrics.ENABLED) LoxMetrics.BINDS.increment();
+        Cell[] bound = upvalues.clone();
+        bound[0] = new Cell(loxInstance);
+        return new FlatFunction(ast, declaration, bound, isInitializer);
+    }
+}
@@ -0,0 +1,327 @@
+package com.light.jlox;
+
+import static com.light.jlox.FlatAst.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Interpreter variant that walks the flat int[] encoding produced by
+ * FlatAst instead of the object tree. Operator, call and property semantics
+ * are shared with Interpreter.
+ */
+class FlatInterpreter extends Interpreter {
+
+    private FlatAst ast;
+    private int[] nodes;
+    private Token[] tokens;
+    private Object[] constants;
+
+    FlatInterpreter(LoxOutput output, Globals.Slots slots) {
+        super(output, slots);
+    }
+
+    private FlatInterpreter(LoxOutput output, Globals globals) {
+        super(output, globals);
+    }
+
+    @Override
+    Interpreter fork() {
+        return inherit(new FlatInterpreter(output, globals));
+    }
+
+    @Override
+    void interpret(LoxScript script) {
+        FlatAst flat = script.flat();
+        load(flat);
+        int count = nodes[flat.statements];
+        for (int i = 1; i <= count; i++) {
+            execute(nodes[flat.statements + i]);
+        }
+    }
+
+    private void load(FlatAst ast) {
+        this.ast = ast;
+        this.nodes = ast.nodes;
+        this.tokens = ast.tokens;
+        this.constants = ast.constants;
+    }
+
+    @Override
+    void runModule(LoxScript module) {
+        FlatAst flat = module.flat();
+        executeBody(flat, flat.statements, globals);
+    }
+
+    void executeBody(FlatAst body, int statements, Environment environment) {
+        FlatAst previous = this.ast;
+        try {
+            load(body);
+            executeBlock(statements, environment);
+        } finally {
+            // a fiber's interpreter has nothing loaded before its first call
+            if (previous != null) load(previous);
+        }
+    }
+
+    private void executeBlock(int statements, Environment environment) {
+        Environment previous = this.environment;
+
+        try {
+            this.environment = environment;
+
+            int count = nodes[statements];
+            for (int i = 1; i <= count; i++) {
+                execute(nodes[statements + i]);
+            }
+        } finally {
+            this.environment = previous;
+        }
+    }
+
+    private void execute(int node) {
+        switch (nodes[node + KIND]) {
+            case STMT_BLOCK:
+                executeBlock(nodes[node + STMT_BLOCK_STATEMENTS], new Environment(environment));
+                break;
+            case STMT_BREAK:
+                throw new BreakException();
+            case STMT_CLASS:
+                executeClass(node);
+                break;
+            case STMT_EXPRESSION:
+                evaluate(nodes[node + STMT_EXPRESSION_EXPRESSION]);
+                break;
+            case STMT_FUNCTION: {
+                Token name = tokens[nodes[node + STMT_FUNCTION_NAME]];
+                environment.define(name.lexeme, null);
+                environment.assign(name, new FlatFunction(ast, node, capture(captures(node)), false));
+                break;
+            }
+            case STMT_IF:
+                if (condition(nodes[node + STMT_IF_CONDITION], nodes[node + STMT_IF_FUSED])) {
+                    execute(nodes[node + STMT_IF_THENBRANCH]);
+                } else if (nodes[node + STMT_IF_ELSEBRANCH] != -1) {
+                    execute(nodes[node + STMT_IF_ELSEBRANCH]);
+                }
+                break;
+            case STMT_IMPORT:
+                importModule((String)constants[nodes[node + STMT_IMPORT_FILE]], tokens[nodes[node + STMT_IMPORT_KEYWORD]]);
+                break;
+            case STMT_PRINT:
+                output.println(evaluate(nodes[node + STMT_PRINT_EXPRESSION]));
+                break;
+            case STMT_RETURN: {
+                Object value = null;
+                if (nodes[node + STMT_RETURN_VALUE] != -1) value = evaluate(nodes[node + STMT_RETURN_VALUE]);
+                throw new Return(value);
+            }
+            case STMT_VAR: {
+                Object initialization = null;
+                if (nodes[node + STMT_VAR_INITIALIZER] != -1) {
+                    initialization = evaluate(nodes[node + STMT_VAR_INITIALIZER]);
+                }
+                environment.define(tokens[nodes[node + STMT_VAR_NAME]].lexeme, initialization);
+                break;
+            }
+            case STMT_WHILE:
+                try {
+                    while (condition(nodes[node + STMT_WHILE_CONDITION], nodes[node + STMT_WHILE_FUSED])) {
+                        if (budget != null) budget.step(tokens[nodes[node + STMT_WHILE_KEYWORD]]);
+                        execute(nodes[node + STMT_WHILE_BODY]);
+                    }
+                } catch (BreakException e) {
+                    ;
+                }
+                break;
+            default:
+                throw new IllegalStateException("Not a statement node: " + nodes[node + KIND]);
+        }
+    }
+
+    private void executeClass(int node) {
+        Token name = tokens[nodes[node + STMT_CLASS_NAME]];
+        int superclassNode = nodes[node + STMT_CLASS_SUPERCLASS];
+
+        Object superclass = null;
+        if (superclassNode != -1) {
+            superclass = evaluate(superclassNode);
+            if (!(superclass instanceof LoxClass)) {
+                throw new RuntimeError(tokens[nodes[superclassNode + EXPR_VARIABLE_NAME]], "Superclass must be a class.");
+            }
+        }
+        environment.define(name.lexeme, null);
+        Environment enclosing = environment;
+        if (superclassNode != -1) {
+            environment = new Environment(environment);
+            environment.define("super", superclass);
+        }
+        environment = new Environment(environment);
+        environment.define("this", null);
+        Map<String, LoxMethod> methods = new HashMap<>();
+        int list = nodes[node + STMT_CLASS_METHODS];
+        for (int i = 1; i <= nodes[list]; i++) {
+            int method = nodes[list + i];
+            String methodName = tokens[nodes[method + STMT_FUNCTION_NAME]].lexeme;
+            methods.put(methodName, new FlatFunction(ast, method, capture(captures(method)), methodName.equals("init")));
+        }
+        LoxClass klass = new LoxClass(name.lexeme, (LoxClass)superclass, methods, globals);
+
+        environment = enclosing;
+        environment.assign(name, klass);
+    }
+
+    private Resolver.Capture[] captures(int function) {
+        return (Resolver.Capture[])constants[nodes[function + STMT_FUNCTION_CAPTURES]];
+    }
+
+    private Object evaluate(int node) {
+        switch (nodes[node + KIND]) {
+            case EXPR_ASSIGN: {
+                Token name = tokens[nodes[node + EXPR_ASSIGN_NAME]];
+                if (nodes[node + EXPR_ASSIGN_FUSED] == Lowering.INCREMENT) return increment(node, name);
+                Object value = evaluate(nodes[node + EXPR_ASSIGN_VALUE]);
+                int distance = nodes[node + DEPTH];
+                if (nodes[node + EXPR_ASSIGN_UPVALUE] != -1) {
+                    upvalues[nodes[node + EXPR_ASSIGN_UPVALUE]].set(value);
+                } else if (distance != -1) {
+                    environment.assignAt(distance, name, value);
+                } else {
+                    globals.assign(nodes[node + EXPR_ASSIGN_SLOT], name, value);
+                }
+                return value;
+            }
+            case EXPR_BINARY: {
+                if (nodes[node + EXPR_BINARY_FUSED] == Lowering.VARIABLE_CONSTANT) {
+                    int variable = nodes[node + EXPR_BINARY_LEFT];
+                    return binary(tokens[nodes[node + EXPR_BINARY_OPERATOR]],
+                        lookUpVariable(variable, tokens[nodes[variable + EXPR_VARIABLE_NAME]]),
+                        constants[nodes[nodes[node + EXPR_BINARY_RIGHT] + EXPR_LITERAL_VALUE]]);
+                }
+                Object left = evaluate(nodes[node + EXPR_BINARY_LEFT]);
+                Object right = evaluate(nodes[node + EXPR_BINARY_RIGHT]);
+                return binary(tokens[nodes[node + EXPR_BINARY_OPERATOR]], left, right);
+            }
+            case EXPR_CALL: {
+                Object callee = evaluate(nodes[node + EXPR_CALL_CALLEE]);
+                int list = nodes[node + EXPR_CALL_ARGUMENTS];
+                List<Object> arguments = new ArrayList<>(nodes[list]);
+                for (int i = 1; i <= nodes[list]; i++) {
+                    arguments.add(evaluate(nodes[list + i]));
+                }
+                return call(tokens[nodes[node + EXPR_CALL_PAREN]], callee, arguments);
+            }
+            case EXPR_GROUPING:
+                return evaluate(nodes[node + EXPR_GROUPING_EXPRESSION]);
+            case EXPR_GET: {
+                Object object = evaluate(nodes[node + EXPR_GET_OBJECT]);
+                return getProperty(tokens[nodes[node + EXPR_GET_NAME]], object);
+            }
+            case EXPR_INDEX: {
+                Object object = evaluate(nodes[node + EXPR_INDEX_OBJECT]);
+                Object index = evaluate(nodes[node + EXPR_INDEX_INDEX]);
+                return getIndex(tokens[nodes[node + EXPR_INDEX_BRACKET]], object, index);
+            }
+            case EXPR_LITERAL:
+                return constants[nodes[node + EXPR_LITERAL_VALUE]];
+            case EXPR_LOGICAL: {
+                Object left = evaluate(nodes[node + EXPR_LOGICAL_LEFT]);
+                if (tokens[nodes[node + EXPR_LOGICAL_OPERATOR]].type == TokenType.OR) {
+                    if (isTruthy(left)) return left;
+                } else {
+                    if (!isTruthy(left)) return left;
+                }
+                return evaluate(nodes[node + EXPR_LOGICAL_RIGHT]);
+            }
+            case EXPR_SET: {
+                Object object = evaluate(nodes[node + EXPR_SET_OBJECT]);
+                Token name = tokens[nodes[node + EXPR_SET_NAME]];
+                if (object instanceof LoxInstance) {
+                    Object value;
+                    if (nodes[node + EXPR_SET_FUSED] == Lowering.GET_ADD_SET) {
+                        int update = nodes[node + EXPR_SET_VALUE];
+                        Token field = tokens[nodes[nodes[update + EXPR_BINARY_LEFT] + EXPR_GET_NAME]];
+                        Object current = ((LoxInstance)object).get(field);
+                        value = binary(tokens[nodes[update + EXPR_BINARY_OPERATOR]], current, evaluate(nodes[update + EXPR_BINARY_RIGHT]));
+                    } else {
+                        value = evaluate(nodes[node + EXPR_SET_VALUE]);
+                    }
+                    ((LoxInstance)object).set(name, value);
+                    return value;
+                }
+                throw new RuntimeError(name, "Only instances have fields");
+            }
+            case EXPR_SETINDEX: {
+                Object object = evaluate(nodes[node + EXPR_SETINDEX_OBJECT]);
+                Object index = evaluate(nodes[node + EXPR_SETINDEX_INDEX]);
+                Object value = evaluate(nodes[node + EXPR_SETINDEX_VALUE]);
+                return setIndex(tokens[nodes[node + EXPR_SETINDEX_BRACKET]], object, index, value);
+            }
+            case EXPR_SUPER: {
+                LoxClass superclass = (LoxClass)upvalues[nodes[node + EXPR_SUPER_UPVALUE]].get();
+                LoxInstance object = (LoxInstance)upvalues[nodes[node + EXPR_SUPER_THISUPVALUE]].get();
+
+                Token method = tokens[nodes[node + EXPR_SUPER_METHOD]];
+                LoxMethod bound = superclass.findMethod(method.lexeme);
+                if (bound == null) {
+                    throw new RuntimeError(method, "Undefined property '" + method.lexeme + "'.");
+                }
+                return bound.bind(object);
+            }
+            case EXPR_THIS:
+                return upvalues[nodes[node + EXPR_THIS_UPVALUE]].get();
+            case EXPR_UNARY:
+                return unary(tokens[nodes[node + EXPR_UNARY_OPERATOR]], evaluate(nodes[node + EXPR_UNARY_RIGHT]));
+            case EXPR_VARIABLE:
+                return lookUpVariable(node, tokens[nodes[node + EXPR_VARIABLE_NAME]]);
+            default:
+                throw new IllegalStateException("Not an expression node: " + nodes[node + KIND]);
+        }
+    }
+
+    private boolean condition(int condition, int fused) {
+        if (fused != Lowering.COMPARE_AND_BRANCH) return isTruthy(evaluate(condition));
+        Token operator = tokens[nodes[condition + EXPR_BINARY_OPERATOR]];
+        int left = nodes[condition + EXPR_BINARY_LEFT];
+        int right = nodes[condition + EXPR_BINARY_RIGHT];
+        if (nodes[condition + EXPR_BINARY_FUSED] == Lowering.VARIABLE_CONSTANT) {
+            return compare(operator, lookUpVariable(left, tokens[nodes[left + EXPR_VARIABLE_NAME]]),
+                constants[nodes[right + EXPR_LITERAL_VALUE]]);
+        }
+        return compare(operator, evaluate(left), evaluate(right));
+    }
+
+    // reads and writes the variable with one lookup
+    private Object increment(int node, Token name) {
+        int step = nodes[node + EXPR_ASSIGN_VALUE];
+        Token operator = tokens[nodes[step + EXPR_BINARY_OPERATOR]];
+        double amount = (double)constants[nodes[nodes[step + EXPR_BINARY_RIGHT] + EXPR_LITERAL_VALUE]];
+        int distance = nodes[node + DEPTH];
+        Object value;
+        if (nodes[node + EXPR_ASSIGN_UPVALUE] != -1) {
+            Cell cell = upvalues[nodes[node + EXPR_ASSIGN_UPVALUE]];
+            value = increment(operator, cell.get(), amount);
+            cell.set(value);
+        } else if (distance != -1) {
+            value = increment(operator, environment.getAt(distance, name.lexeme), amount);
+            environment.assignAt(distance, name, value);
+        } else {
+            int slot = nodes[node + EXPR_ASSIGN_SLOT];
+            value = increment(operator, globals.get(slot, name), amount);
+            globals.assign(slot, name, value);
+        }
+        return value;
+    }
+
+    private Object lookUpVariable(int node, Token name) {
+        if (nodes[node + EXPR_VARIABLE_UPVALUE] != -1) return upvalues[nodes[node + EXPR_VARIABLE_UPVALUE]].get();
+        int distance = nodes[node + DEPTH];
+        if (distance != -1) {
+            return environment.getAt(distance, name.lexeme);
+        } else {
+            return globals.get(nodes[node + EXPR_VARIABLE_SLOT], name);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.light.jlox;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The global scope, kept in an array rather than a map. Every global name
+ * gets a slot number the first time a script of the engine mentions it;
+ * the numbering is shared by the engine's contexts, so the slot the
+ * resolver caches on a variable node is valid in whichever of them runs
+ * the script. Lookups stay late bound: a slot holds UNDEFINED until its
+ * name is defined in this context, and defining it again (as the REPL
+ * allows) overwrites the value in place.
+ */
+final class Globals extends Environment {
+    private static final Object UNDEFINED = new Object();
+
+    /**
+     * The slot numbers of one engine's global names. It grows with the
+     * names that engine's scripts use, and is dropped along with the engine.
+     */
+    static final class Slots {
+        private final Map<String, Integer> slots = new ConcurrentHashMap<>();
+
+        int slot(String name) {
+            Integer slot = slots.get(name);
+            if (slot != null) return slot;
+            synchronized (slots) {
+                return slots.computeIfAbsent(name, key -> slots.size());
+            }
+        }
+    }
+
+    final Slots slots;
+    private Object[] values = newValues(64);
+
+    // Set once this context spawns its first fiber or parallel call. From
+    // then on the globals, and the instances, lists and maps made in this
+    // context, lock themselves while read or written, since those threads
+    // share them; other contexts, and this one until then, pay nothing.
+    volatile boolean concurrent = false;
+
+    Globals(Slots slots) {
+        this.slots = slots;
+    }
+
+    private static Object[] newValues(int length) {
+        Object[] values = new Object[length];
+        Arrays.fill(values, UNDEFINED);
+        return values;
+    }
+
+    Object get(int slot, Token name) {
+        Object value = load(slot);
+        if (value == UNDEFINED) throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+        return value;
+    }
+
+    void define(int slot, Object value) {
+        if (!concurrent) {
+            store(slot, value);
+            return;
+        }
+        synchronized (this) {
+            store(slot, value);
+        }
+    }
+
+    void assign(int slot, Token name, Object value) {
+        if (!replace(slot, value)) throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+    }
+
+    private Object load(int slot) {
+        if (!concurrent) return slot < values.length ? values[slot] : UNDEFINED;
+        synchronized (this) {
+            return slot < values.length ? values[slot] : UNDEFINED;
+        }
+    }
+
+    private void store(int slot, Object value) {
+        if (slot >= values.length) {
+            Object[] grown = newValues(Math.max(values.length * 2, slot + 1));
+            System.arraycopy(values, 0, grown, 0, values.length);
+            values = grown;
+        }
+        values[slot] = value;
+    }
+
+    private boolean replace(int slot, Object value) {
+        if (!concurrent) return replaceValue(slot, value);
+        synchronized (this) {
+            return replaceValue(slot, value);
+        }
+    }
+
+    private boolean replaceValue(int slot, Object value) {
+        if (slot >= values.length || values[slot] == UNDEFINED) return false;
+        values[slot] = value;
+        return true;
+    }
+
+    // lookups by name, from natives and from scopes chained to the globals
+
+    @Override
+    void define(String name, Object value) {
+        define(slots.slot(name), value);
+    }
+
+    @Override
+    Object find(String name) {
+        Integer slot = slots.slots.get(name);
+        if (slot == null) return MISSING;
+        Object value = load(slot);
+        return value == UNDEFINED ? MISSING : value;
+    }
+
+    @Override
+    boolean replace(String name, Object value) {
+        Integer slot = slots.slots.get(name);
+        return slot != null && replace(slot, value);
+    }
+
+    /** Every global defined in this context, by name, for a snapshot. */
+    Map<String, Object> defined() {
+        Map<String, Object> defined = new TreeMap<>();
+        for (Map.Entry<String, Integer> entry : slots.slots.entrySet()) {
+            Object value = load(entry.getValue());
+            if (value != UNDEFINED) defined.put(entry.getKey(), value);
+        }
+        return defined;
+    }
+}
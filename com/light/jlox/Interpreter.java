@@ -1,18 +1,23 @@
 package com.light.jlox;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import com.light.jlox.Expr.Assign;
 import com.light.jlox.Expr.Binary;
 import com.light.jlox.Expr.Call;
 import com.light.jlox.Expr.Get;
 import com.light.jlox.Expr.Grouping;
+import com.light.jlox.Expr.Index;
 import com.light.jlox.Expr.Literal;
 import com.light.jlox.Expr.Logical;
 import com.light.jlox.Expr.Set;
+import com.light.jlox.Expr.SetIndex;
 import com.light.jlox.Expr.Super;
 import com.light.jlox.Expr.This;
 import com.light.jlox.Expr.Unary;
@@ -23,18 +28,38 @@ import com.light.jlox.Stmt.Class;
 import com.light.jlox.Stmt.Expression;
 import com.light.jlox.Stmt.Function;
 import com.light.jlox.Stmt.If;
+import com.light.jlox.Stmt.Import;
 import com.light.jlox.Stmt.Print;
 import com.light.jlox.Stmt.Var;
 import com.light.jlox.Stmt.While;
 
 class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
-    final Environment globals = new Environment();
-    private Environment environment = globals;
-
-    private final Map<Expr, Integer> locals = new HashMap<>();
-
-    Interpreter() {
+    final Globals globals;
+    final LoxOutput output;
+    Environment environment;
+    // the running function's captured variables, null at the top level
+    Cell[] upvalues;
+
+    // the modules the running script may import, see LoxModules
+    Map<String, LoxScript> modules = Collections.emptyMap();
+    // the modules this context has run, each only the first time it is imported
+    final java.util.Set<String> imported = new java.util.HashSet<>();
+
+    // fibers that failed, shared with forks, see LoxContext.reportFailedFibers
+    Queue<LoxFibers.Fiber> failedFibers = new ConcurrentLinkedQueue<>();
+
+    // null unless the context has limits, see LoxBudget
+    LoxBudget budget;
+    // null unless profiling, see LoxProfiler
+    LoxProfiler.ShadowStack shadow;
+    private int depth = 0;
+    // calls on the stack of the interpreter this one was forked from, so the
+    // depth limit holds across fibers and parallel calls
+    int forkDepth = 0;
+
+    Interpreter(LoxOutput output, Globals.Slots slots) {
+        this(output, new Globals(slots));
         globals.define("clock", new LoxCallable() {
             @Override
             public int arity() {
@@ -52,25 +77,51 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             }
             
         });
+        LoxFibers.define(globals);
+        LoxCollections.define(globals);
+        LoxParallel.define(globals);
     }
 
-    void interpret(List<Stmt> statements) {
-        try {
-            for (Stmt statement: statements ) {
-                execute(statement);
-            }
-        } catch (RuntimeError e) {
-            Lox.runtimeError(e);
+    Interpreter(LoxOutput output, Globals globals) {
+        this.output = output;
+        this.globals = globals;
+        this.environment = globals;
+    }
+
+    /** A new interpreter sharing this one's globals, for running a fiber. */
+    Interpreter fork() {
+        return inherit(new Interpreter(output, globals));
+    }
+
+    /** Hands this interpreter's limits and profiling on to a fork. */
+    Interpreter inherit(Interpreter fork) {
+        fork.budget = budget;
+        fork.forkDepth = callDepth();
+        fork.failedFibers = failedFibers;
+        if (shadow != null) fork.shadow = shadow.profiler.newStack();
+        return fork;
+    }
+
+    /** Releases what a fork took from this interpreter once it is done. */
+    void finish() {
+        if (shadow != null) shadow.release();
+    }
+
+    void interpret(LoxScript script) {
+        for (Stmt statement: script.statements()) {
+            execute(statement);
         }
     }
 
-    private void execute(Stmt statement) {
+    void execute(Stmt statement) {
         statement.accept(this);
     }
 
-    private static String stringify(Object value) {
+    static String stringify(Object value) {
         if (value == null) return "nil";
         if (value instanceof Double) {
+            double number = (double)value;
+            if (isSmallInteger(number)) return Long.toString((long)number);
             String text = value.toString();
             if (text.endsWith(".0")) {
                 text = text.substring(0, text.length() - 2);
@@ -80,50 +131,77 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return value.toString();
     }
 
+    static void stringify(StringBuilder out, Object value) {
+        if (value instanceof Double && isSmallInteger((double)value)) {
+            out.append((long)(double)value);
+        } else {
+            out.append(stringify(value));
+        }
+    }
+
+    // Double.toString switches to exponent notation from 1e7 and keeps the
+    // sign of -0.0, so only these integers can skip it.
+    private static boolean isSmallInteger(double number) {
+        return number == (long)number && Math.abs(number) < 1e7
+            && !(number == 0 && 1 / number < 0);
+    }
+
     @Override
     public Object visitBinaryExpr(Binary expr) {
+        if (expr.fused == Lowering.VARIABLE_CONSTANT) {
+            return binary(expr.operator, visitVariableExpr((Variable)expr.left), ((Literal)expr.right).value);
+        }
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
 
-        switch(expr.operator.type) {
+        return binary(expr.operator, left, right);
+    }
+
+    Object binary(Token operator, Object left, Object right) {
+        switch(operator.type) {
             case MINUS:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left - (double)right;
+                checkNumberOperands(operator, left, right);
+                return LoxValues.number((double)left - (double)right);
             case SLASH:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 if ((double)right == 0) {
-                    throw new RuntimeError(expr.operator, "Division by zero error");
+                    throw new RuntimeError(operator, "Division by zero error");
                 }
-                return (double)left / (double)right;
+                return LoxValues.number((double)left / (double)right);
             case STAR:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left * (double)right;
+                checkNumberOperands(operator, left, right);
+                return LoxValues.number((double)left * (double)right);
             case PLUS:
                 if (left instanceof Double && right instanceof Double) {
-                    return (double)left + (double)right;
+                    return LoxValues.number((double)left + (double)right);
                 }
-                if ((left instanceof String && right instanceof Double)
-                || (right instanceof String && left instanceof Double)
-                || (left instanceof String && right instanceof String)) {
-                    return stringify(left) + stringify(right);
+                if ((isString(left) && right instanceof Double)
+                || (isString(right) && left instanceof Double)
+                || (isString(left) && isString(right))) {
+                    CharSequence leftString = stringOperand(left);
+                    CharSequence rightString = stringOperand(right);
+                    if (budget != null) {
+                        budget.allocate(operator, Math.min(leftString.length(), rightString.length()));
+                    }
+                    return LoxRope.concat(leftString, rightString);
                 }
-                throw new RuntimeError(expr.operator, "Operands must be strings or numbers");
+                throw new RuntimeError(operator, "Operands must be strings or numbers");
             case GREATER:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left > (double)right;
+                checkNumberOperands(operator, left, right);
+                return LoxValues.bool((double)left > (double)right);
             case LESS:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left < (double)right;
+                checkNumberOperands(operator, left, right);
+                return LoxValues.bool((double)left < (double)right);
             case GREATER_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left >= (double)right;
+                checkNumberOperands(operator, left, right);
+                return LoxValues.bool((double)left >= (double)right);
             case LESS_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left <= (double)right;
+                checkNumberOperands(operator, left, right);
+                return LoxValues.bool((double)left <= (double)right);
             case EQUAL_EQUAL:
-                return isEqual(left, right);
+                return LoxValues.bool(isEqual(left, right));
             case BANG_EQUAL:
-                return !isEqual(left, right);
+                return LoxValues.bool(!isEqual(left, right));
             default:
                 break;
         }
@@ -131,6 +209,34 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return null;
     }
 
+    // the fused forms marked by Lowering, shared with the flat engine
+
+    Object increment(Token operator, Object current, double amount) {
+        if (!(current instanceof Double)) return binary(operator, current, amount);
+        return LoxValues.number(operator.type == TokenType.PLUS ? (double)current + amount : (double)current - amount);
+    }
+
+    boolean compare(Token operator, Object left, Object right) {
+        if (!(left instanceof Double) || !(right instanceof Double)) return isTruthy(binary(operator, left, right));
+        double a = (double)left;
+        double b = (double)right;
+        switch (operator.type) {
+            case GREATER: return a > b;
+            case GREATER_EQUAL: return a >= b;
+            case LESS: return a < b;
+            default: return a <= b;
+        }
+    }
+
+    private boolean condition(Expr condition, int fused) {
+        if (fused != Lowering.COMPARE_AND_BRANCH) return isTruthy(evaluate(condition));
+        Binary comparison = (Binary)condition;
+        if (comparison.fused == Lowering.VARIABLE_CONSTANT) {
+            return compare(comparison.operator, visitVariableExpr((Variable)comparison.left), ((Literal)comparison.right).value);
+        }
+        return compare(comparison.operator, evaluate(comparison.left), evaluate(comparison.right));
+    }
+
     @Override
     public Object visitGroupingExpr(Grouping expr) {
         return evaluate(expr.expression);
@@ -145,12 +251,16 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     public Object visitUnaryExpr(Unary expr) {
         Object right = evaluate(expr.right);
 
-        switch (expr.operator.type) {
+        return unary(expr.operator, right);
+    }
+
+    Object unary(Token operator, Object right) {
+        switch (operator.type) {
             case MINUS:
-                checkNumberOperand(expr.operator, right);
-                return - (double)right;
+                checkNumberOperand(operator, right);
+                return LoxValues.number(- (double)right);
             case BANG:
-                return !isTruthy(right);
+                return LoxValues.bool(!isTruthy(right));
             default:
                 break;
         }
@@ -158,19 +268,30 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return null;
     }
 
-    private boolean isEqual(Object a, Object b) {
-        if (a == null && b == null) return true;
+    boolean isEqual(Object a, Object b) {
+        if (a == b) return true;
         if (a == null) return false;
+        if (a instanceof LoxRope) a = a.toString();
+        if (b instanceof LoxRope) b = b.toString();
         return a.equals(b);
     }
 
-    private boolean isTruthy(Object object) {
+    static boolean isString(Object value) {
+        return value instanceof String || value instanceof LoxRope;
+    }
+
+    private static CharSequence stringOperand(Object value) {
+        if (value instanceof CharSequence) return (CharSequence)value;
+        return stringify(value);
+    }
+
+    boolean isTruthy(Object object) {
         if (object == null) return false;
         if (object instanceof Boolean) return (boolean)object;
         return true;
     }
 
-    private Object evaluate(Expr expr) {
+    Object evaluate(Expr expr) {
         return expr.accept(this);
     }
     
@@ -193,7 +314,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Void visitPrintStmt(Print stmt) {
         Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
+        output.println(value);
         return null;
     }
 
@@ -210,26 +331,47 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitVariableExpr(Variable expr) {
-        return lookUpVariable(expr.name, expr);
-    }
-
-    private Object lookUpVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            return environment.getAt(distance, name.lexeme);
+        if (expr.upvalue != -1) return upvalues[expr.upvalue].get();
+        if (expr.depth != -1) {
+            return environment.getAt(expr.depth, expr.name.lexeme);
         } else {
-            return environment.get(name);
+            return globals.get(expr.slot, expr.name);
         }
     }
 
     @Override
     public Object visitAssignExpr(Assign expr) {
+        if (expr.fused == Lowering.INCREMENT) return increment(expr);
         Object value = evaluate(expr.value);
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            environment.assignAt(distance, expr.name, value);
+        if (expr.upvalue != -1) {
+            upvalues[expr.upvalue].set(value);
+            return value;
+        }
+        if (expr.depth != -1) {
+            environment.assignAt(expr.depth, expr.name, value);
         } else {
-            environment.assign(expr.name, value);
+            globals.assign(expr.slot, expr.name, value);
+        }
+        return value;
+    }
+
+    // reads and writes the variable with one lookup
+    private Object increment(Assign expr) {
+        Binary step = (Binary)expr.value;
+        double amount = (double)((Literal)step.right).value;
+        Object value;
+        if (expr.upvalue != -1) {
+            Cell cell = upvalues[expr.upvalue];
+            value = increment(step.operator, cell.get(), amount);
+            cell.set(value);
+            return value;
+        }
+        if (expr.depth != -1) {
+            value = increment(step.operator, environment.getAt(expr.depth, expr.name.lexeme), amount);
+            environment.assignAt(expr.depth, expr.name, value);
+        } else {
+            value = increment(step.operator, globals.get(expr.slot, expr.name), amount);
+            globals.assign(expr.slot, expr.name, value);
         }
         return value;
     }
@@ -254,9 +396,35 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
     }
 
+    @Override
+    public Void visitImportStmt(Import stmt) {
+        importModule(stmt.file, stmt.keyword);
+        return null;
+    }
+
+    /** Runs the module unless this context already has: a later import sees its definitions as they are. */
+    void importModule(String file, Token keyword) {
+        if (!imported.add(file)) return;
+        try {
+            runModule(modules.get(file));
+        } catch (RuntimeError e) {
+            // a module that failed part way is run again by the next import of it
+            imported.remove(file);
+            e.addModule(file, keyword.line);
+            throw e;
+        }
+    }
+
+    /** Runs a module's top level, which the resolver ensures is also the importing script's. */
+    void runModule(LoxScript module) {
+        for (Stmt statement : module.statements()) {
+            execute(statement);
+        }
+    }
+
     @Override
     public Void visitIfStmt(If stmt) {
-        if (isTruthy(evaluate(stmt.condition))) {
+        if (condition(stmt.condition, stmt.fused)) {
             execute(stmt.thenBranch);
         } else if(stmt.elseBranch != null) {
             execute(stmt.elseBranch);
@@ -280,7 +448,8 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Void visitWhileStmt(While stmt) {
         try {
-            while (isTruthy(evaluate(stmt.condition))) {
+            while (condition(stmt.condition, stmt.fused)) {
+                if (budget != null) budget.step(stmt.keyword);
                 execute(stmt.body);
             }
         } catch (BreakException e) {
@@ -294,9 +463,10 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         throw new BreakException();
     }
 
-    private static class BreakException extends RuntimeException {
+    static class BreakException extends RuntimeException {
         BreakException() {
             super(null, null, false, false);
+            if (LoxMetrics.ENABLED) LoxMetrics.CONTROL_FLOW.increment();
         }
     }
 
@@ -309,25 +479,87 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             arguments.add(evaluate(argument));
         }
 
+        return call(expr.paren, callee, arguments);
+    }
+
+    Object call(Token paren, Object callee, List<Object> arguments) {
         if (!(callee instanceof LoxCallable)) {
-            throw new RuntimeError(expr.paren, "Can only call functions and classes");
+            throw new RuntimeError(paren, "Can only call functions and classes");
         }
 
         LoxCallable function = (LoxCallable)callee;
         if (arguments.size() != function.arity()) {
-            throw new RuntimeError(expr.paren, "Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
+            throw new RuntimeError(paren, "Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
         }
 
-        return function.call(this, arguments);
+        if (LoxMetrics.ENABLED) LoxMetrics.CALLS.increment();
+        if (budget == null && shadow == null && !LoxEvents.ENABLED) return invoke(paren, function, arguments);
+
+        if (budget != null) budget.call(paren, callDepth());
+        if (shadow != null) shadow.push(function, paren.line);
+        LoxEvents.Call event = LoxEvents.ENABLED ? LoxEvents.beginCall(paren.line) : null;
+        depth++;
+        try {
+            return invoke(paren, function, arguments);
+        } finally {
+            depth--;
+            if (shadow != null) shadow.pop();
+            if (event != null) LoxEvents.endCall(event, function);
+        }
+    }
+
+    private Object invoke(Token paren, LoxCallable function, List<Object> arguments) {
+        try {
+            return function.call(this, arguments);
+        } catch (RuntimeError e) {
+            // natives don't know their call site
+            if (e.token == null) throw new RuntimeError(paren, e.getMessage());
+            if (function instanceof LoxNative) {
+                e.callSite(paren.line);
+            } else {
+                e.addFrame(function, paren.line);
+            }
+            throw e;
+        } catch (StackOverflowError e) {
+            throw new RuntimeError(paren, "Stack overflow.");
+        }
+    }
+
+    /** How deep in Lox calls this interpreter is, counting those below its fork. */
+    int callDepth() {
+        return forkDepth + depth;
+    }
+
+    /** Calls a function passed to a native, keeping it in the traceback of any error. */
+    Object callBack(LoxCallable function, List<Object> arguments) {
+        try {
+            return function.call(this, arguments);
+        } catch (RuntimeError e) {
+            // the native's own call site is filled in once the error leaves it
+            if (e.token != null) e.addFrame(function, RuntimeError.UNKNOWN_LINE);
+            throw e;
+        }
     }
 
     @Override
     public Void visitFunctionStmt(Function stmt) {
-        LoxFunction function = new LoxFunction(stmt, environment, false);
-        environment.define(stmt.name.lexeme, function);
+        // defined first, so a function can capture itself
+        environment.define(stmt.name.lexeme, null);
+        LoxFunction function = new LoxFunction(stmt, capture(stmt.captures), false);
+        environment.assign(stmt.name, function);
         return null;
     }
 
+    /** Collects the cells a function being created here captures, see Resolver.Capture. */
+    Cell[] capture(Resolver.Capture[] captures) {
+        Cell[] cells = new Cell[captures.length];
+        for (int i = 0; i < captures.length; i++) {
+            Resolver.Capture capture = captures[i];
+            cells[i] = capture.isLocal ? environment.capture(capture.index, capture.name) : upvalues[capture.index];
+        }
+        return cells;
+    }
+
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
         Object value = null;
@@ -336,10 +568,6 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         throw new Return(value);
     }
 
-    public void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
-    }
-
     @Override
     public Void visitClassStmt(Class stmt) {
         Object superclass = null;
@@ -350,20 +578,22 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             }
         }
         environment.define(stmt.name.lexeme, null);
+        Environment enclosing = environment;
         if (stmt.superclass != null) {
             environment = new Environment(environment);
             environment.define("super", superclass);
         }
-        Map<String, LoxFunction> methods = new HashMap<>();
+        // the resolver's scope for 'this'; binding a method replaces its cell
+        environment = new Environment(environment);
+        environment.define("this", null);
+        Map<String, LoxMethod> methods = new HashMap<>();
         for (Stmt.Function method : stmt.methods) {
-            LoxFunction function = new LoxFunction(method, environment, method.name.lexeme.equals("init"));
+            LoxFunction function = new LoxFunction(method, capture(method.captures), method.name.lexeme.equals("init"));
             methods.put(method.name.lexeme, function);
         }
-        LoxClass klass = new LoxClass(stmt.name.lexeme, (LoxClass)superclass, methods);
+        LoxClass klass = new LoxClass(stmt.name.lexeme, (LoxClass)superclass, methods, globals);
 
-        if (stmt.superclass != null) {
-            environment = environment.enclosing;
-        }
+        environment = enclosing;
         environment.assign(stmt.name, klass);
         return null;
     }
@@ -371,12 +601,16 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Object visitGetExpr(Get expr) {
         Object object = evaluate(expr.object);
+        return getProperty(expr.name, object);
+    }
+
+    Object getProperty(Token name, Object object) {
         if (object instanceof LoxInstance) {
             LoxInstance instance = (LoxInstance)object;
-            return instance.get(expr.name);
+            return instance.get(name);
         }
 
-        throw new RuntimeError(expr.name, "Only instances have properties.");
+        throw new RuntimeError(name, "Only instances have properties.");
     }
 
     @Override
@@ -384,26 +618,71 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         Object object = evaluate(expr.object);
         if (object instanceof LoxInstance) {
             LoxInstance instance = (LoxInstance)object;
-            instance.set(expr.name, evaluate(expr.value));
-            return expr.value;
+            Object value;
+            if (expr.fused == Lowering.GET_ADD_SET) {
+                Binary update = (Binary)expr.value;
+                value = binary(update.operator, instance.get(((Get)update.left).name), evaluate(update.right));
+            } else {
+                value = evaluate(expr.value);
+            }
+            instance.set(expr.name, value);
+            return value;
         }
 
         throw new RuntimeError(expr.name, "Only instances have fields");
     }
 
+    @Override
+    public Object visitIndexExpr(Index expr) {
+        Object object = evaluate(expr.object);
+        Object index = evaluate(expr.index);
+        return getIndex(expr.bracket, object, index);
+    }
+
+    Object getIndex(Token bracket, Object object, Object index) {
+        if (object instanceof LoxList) {
+            LoxList list = (LoxList)object;
+            return list.get(LoxCollections.index(bracket, list, index));
+        }
+        if (object instanceof LoxMap) {
+            return ((LoxMap)object).get(LoxCollections.key(bracket, index));
+        }
+
+        throw new RuntimeError(bracket, "Only lists and maps can be indexed.");
+    }
+
+    @Override
+    public Object visitSetIndexExpr(SetIndex expr) {
+        Object object = evaluate(expr.object);
+        Object index = evaluate(expr.index);
+        return setIndex(expr.bracket, object, index, evaluate(expr.value));
+    }
+
+    Object setIndex(Token bracket, Object object, Object index, Object value) {
+        if (object instanceof LoxList) {
+            LoxList list = (LoxList)object;
+            list.set(LoxCollections.index(bracket, list, index), value);
+            return value;
+        }
+        if (object instanceof LoxMap) {
+            ((LoxMap)object).put(LoxCollections.key(bracket, index), value);
+            return value;
+        }
+
+        throw new RuntimeError(bracket, "Only lists and maps can be indexed.");
+    }
+
     @Override
     public Object visitThisExpr(This expr) {
-        return lookUpVariable(expr.keyword, expr);
+        return upvalues[expr.upvalue].get();
     }
 
     @Override
     public Object visitSuperExpr(Super expr) {
-        int distance = locals.get(expr);
-        LoxClass superclass = (LoxClass)environment.getAt(distance, "super");
-
-        LoxInstance object = (LoxInstance) environment.getAt(distance - 1, "this");
+        LoxClass superclass = (LoxClass)upvalues[expr.upvalue].get();
+        LoxInstance object = (LoxInstance)upvalues[expr.thisUpvalue].get();
 
-        LoxFunction method = superclass.findMethod(expr.method.lexeme);
+        LoxMethod method = superclass.findMethod(expr.method.lexeme);
         if (method == null) {
             throw new RuntimeError(expr.method, "Undefined property '" + expr.method.lexeme + "'.");
         }
@@ -0,0 +1,268 @@
+package com.light.jlox;
+
+import java.util.List;
+
+import com.light.jlox.Expr.Assign;
+import com.light.jlox.Expr.Binary;
+import com.light.jlox.Expr.Call;
+import com.light.jlox.Expr.Get;
+import com.light.jlox.Expr.Grouping;
+import com.light.jlox.Expr.Index;
+import com.light.jlox.Expr.Literal;
+import com.light.jlox.Expr.Logical;
+import com.light.jlox.Expr.Set;
+import com.light.jlox.Expr.SetIndex;
+import com.light.jlox.Expr.Super;
+import com.light.jlox.Expr.This;
+import com.light.jlox.Expr.Unary;
+import com.light.jlox.Expr.Variable;
+import com.light.jlox.Stmt.Block;
+import com.light.jlox.Stmt.Break;
+import com.light.jlox.Stmt.Class;
+import com.light.jlox.Stmt.Expression;
+import com.light.jlox.Stmt.Function;
+import com.light.jlox.Stmt.If;
+import com.light.jlox.Stmt.Import;
+import com.light.jlox.Stmt.Print;
+import com.light.jlox.Stmt.Return;
+import com.light.jlox.Stmt.Var;
+import com.light.jlox.Stmt.While;
+
+/**
+ * Runs after the Resolver and marks the handful of shapes hot code is made
+ * of, by setting the fused field of the node at the root of each. The
+ * engines run a marked node as one step instead of visiting its parts: the
+ * tree and flat interpreters skip the dispatches and lookups for the inner
+ * nodes, and the VM compiles some of them to a single instruction. A node
+ * that isn't marked, or an engine that ignores the mark, runs as before.
+ */
+class Lowering implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    // x = x + 1, x = x - 1: a variable plus or minus a number
+    static final int INCREMENT = 0;
+    // n - 1, i < 10: any binary operator on a variable and a number
+    static final int VARIABLE_CONSTANT = 1;
+    // if (a < b), while (a < b): branch on a numeric comparison without a boolean
+    static final int COMPARE_AND_BRANCH = 2;
+    // x.f = x.f + y: read, combine and write a field, evaluating x once
+    static final int GET_ADD_SET = 3;
+
+    void lower(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            lower(statement);
+        }
+    }
+
+    private void lower(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void lower(Expr expr) {
+        expr.accept(this);
+    }
+
+    private static boolean isNumber(Expr expr) {
+        return expr instanceof Literal && ((Literal)expr).value instanceof Double;
+    }
+
+    private static boolean isComparison(Expr expr) {
+        if (!(expr instanceof Binary)) return false;
+        switch (((Binary)expr).operator.type) {
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // an expression has no declarations, so the same name resolves the same way
+    private static boolean isSameObject(Expr a, Expr b) {
+        if (a instanceof This && b instanceof This) return true;
+        return a instanceof Variable && b instanceof Variable
+            && ((Variable)a).name.lexeme.equals(((Variable)b).name.lexeme);
+    }
+
+    @Override
+    public Void visitBlockStmt(Block stmt) {
+        lower(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Break stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Class stmt) {
+        for (Function method : stmt.methods) {
+            lower(method);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Expression stmt) {
+        lower(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Function stmt) {
+        lower(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(If stmt) {
+        if (isComparison(stmt.condition)) stmt.fused = COMPARE_AND_BRANCH;
+        lower(stmt.condition);
+        lower(stmt.thenBranch);
+        if (stmt.elseBranch != null) lower(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitImportStmt(Import stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Print stmt) {
+        lower(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Return stmt) {
+        if (stmt.value != null) lower(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Var stmt) {
+        if (stmt.initializer != null) lower(stmt.initializer);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(While stmt) {
+        if (isComparison(stmt.condition)) stmt.fused = COMPARE_AND_BRANCH;
+        lower(stmt.condition);
+        lower(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Assign expr) {
+        if (expr.value instanceof Binary) {
+            Binary value = (Binary)expr.value;
+            TokenType operator = value.operator.type;
+            if ((operator == TokenType.PLUS || operator == TokenType.MINUS)
+                    && value.left instanceof Variable
+                    && ((Variable)value.left).name.lexeme.equals(expr.name.lexeme)
+                    && isNumber(value.right)) {
+                expr.fused = INCREMENT;
+            }
+        }
+        lower(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Binary expr) {
+        if (expr.left instanceof Variable && isNumber(expr.right)) expr.fused = VARIABLE_CONSTANT;
+        lower(expr.left);
+        lower(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Call expr) {
+        lower(expr.callee);
+        for (Expr argument : expr.arguments) {
+            lower(argument);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Get expr) {
+        lower(expr.object);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Grouping expr) {
+        lower(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(Index expr) {
+        lower(expr.object);
+        lower(expr.index);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Logical expr) {
+        lower(expr.left);
+        lower(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Set expr) {
+        if (expr.value instanceof Binary) {
+            Binary value = (Binary)expr.value;
+            TokenType operator = value.operator.type;
+            if ((operator == TokenType.PLUS || operator == TokenType.MINUS
+                    || operator == TokenType.STAR || operator == TokenType.SLASH)
+                    && value.left instanceof Get
+                    && ((Get)value.left).name.lexeme.equals(expr.name.lexeme)
+                    && isSameObject(((Get)value.left).object, expr.object)) {
+                expr.fused = GET_ADD_SET;
+            }
+        }
+        lower(expr.object);
+        lower(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitSetIndexExpr(SetIndex expr) {
+        lower(expr.object);
+        lower(expr.index);
+        lower(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Super expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(This expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Unary expr) {
+        lower(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Variable expr) {
+        return null;
+    }
+}
@@ -3,9 +3,14 @@ package com.light.jlox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.PrintStream;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class Lox {
@@ -13,22 +18,240 @@ public class Lox {
 	static boolean hadError = false;
 	static boolean hadRuntimeError = false;
 
-	private static final Interpreter interpreter = new Interpreter();
+	private static LoxEngine engine;
+	private static LoxContext context;
+	private static LoxProfiler profiler;
+	private static String profileFile;
+	private static LoxCounters counters;
+	private static String profileOut;
+	private static String snapshotOut;
 
 	public static void main(String[] args) throws IOException {
-		if (args.length > 1) {
-			System.out.println("Usage: jlox [script]");
-			System.exit(64);
-		} else if (args.length == 1) {
-			runFile(args[0]);
+		if (args.length > 0 && args[0].equals("bench")) {
+			bench(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+		if (args.length == 1 && args[0].equals("check")) {
+			if (new LoxCheck().run(System.out) > 0) System.exit(1);
+			return;
+		}
+
+		List<String> scripts = new ArrayList<>();
+		String kind = null;
+		LoxOutput.Flush flush = LoxOutput.Flush.BLOCK;
+		boolean batch = false;
+		int jobs = Runtime.getRuntime().availableProcessors();
+		LoxLimits limits = LoxLimits.NONE;
+		LoxFeedback feedback = null;
+		String snapshotIn = null;
+		for (String arg : args) {
+			if (arg.equals("--batch")) {
+				batch = true;
+			} else if (arg.startsWith("--jobs=")) {
+				jobs = Integer.parseInt(arg.substring("--jobs=".length()));
+			} else if (arg.startsWith("--engine=")) {
+				kind = arg.substring("--engine=".length());
+			} else if (arg.startsWith("--max-steps=")) {
+				limits = limits.withMaxSteps(Long.parseLong(arg.substring("--max-steps=".length())));
+			} else if (arg.startsWith("--timeout=")) {
+				limits = limits.withTimeout(Duration.ofMillis(Long.parseLong(arg.substring("--timeout=".length()))));
+			} else if (arg.startsWith("--max-depth=")) {
+				limits = limits.withMaxDepth(Integer.parseInt(arg.substring("--max-depth=".length())));
+			} else if (arg.startsWith("--max-allocations=")) {
+				limits = limits.withMaxAllocations(Long.parseLong(arg.substring("--max-allocations=".length())));
+			} else if (arg.equals("--counts")) {
+				counters = new LoxCounters();
+			} else if (arg.startsWith("--profile-out=")) {
+				profileOut = arg.substring("--profile-out=".length());
+			} else if (arg.startsWith("--profile-in=")) {
+				feedback = LoxFeedback.read(Paths.get(arg.substring("--profile-in=".length())));
+			} else if (arg.startsWith("--snapshot-out=")) {
+				snapshotOut = arg.substring("--snapshot-out=".length());
+			} else if (arg.startsWith("--snapshot-in=")) {
+				snapshotIn = arg.substring("--snapshot-in=".length());
+			} else if (arg.equals("--profile")) {
+				profileFile = "profile.folded";
+			} else if (arg.startsWith("--profile=")) {
+				profileFile = arg.substring("--profile=".length());
+			} else if (arg.equals("--flush=line")) {
+				flush = LoxOutput.Flush.LINE;
+			} else if (arg.equals("--flush=block")) {
+				flush = LoxOutput.Flush.BLOCK;
+			} else if (arg.startsWith("--")) {
+				usage();
+			} else {
+				scripts.add(arg);
+			}
+		}
+
+		// counting sees every node, so nothing is fused away, and runs on a
+		// tree interpreter only, so no other engine can be asked for
+		boolean lowering = counters == null;
+		if (!lowering && kind != null && !kind.equals("tree")) {
+			System.err.println("--counts runs on the tree engine only.");
+			usage();
+		}
+		if (kind == null) kind = "tree";
+		switch (kind) {
+			case "tree": engine = new LoxEngine(LoxEngine.Kind.TREE, lowering, feedback); break;
+			case "flat": engine = new LoxEngine(LoxEngine.Kind.FLAT, lowering, feedback); break;
+			case "vm": engine = new LoxEngine(LoxEngine.Kind.VM, lowering, feedback); break;
+			default: usage();
+		}
+
+		LoxSnapshot snapshot = snapshotIn == null ? null : loadSnapshot(snapshotIn);
+		if (batch) {
+			if (scripts.isEmpty() || snapshotOut != null) usage();
+			runBatch(scripts, jobs, limits, snapshot);
+			return;
+		}
+		if ((snapshotOut != null || profileOut != null) && scripts.size() != 1) usage();
+
+		if (counters != null) {
+			// counting is woven into a tree interpreter of its own
+			if (scripts.size() != 1) usage();
+			Interpreter interpreter = new CountingInterpreter(new LoxOutput(System.out, flush), engine.slots(), counters);
+			context = new LoxContext(interpreter, System.err, limits);
+		} else {
+			context = engine.newContext(System.out, System.err, flush, limits);
+		}
+		if (snapshot != null) context.restore(snapshot);
+		if (profileFile != null) {
+			profiler = new LoxProfiler();
+			context.profile(profiler);
+			profiler.start();
+		}
+
+		if (scripts.size() > 1) {
+			usage();
+		} else if (scripts.size() == 1) {
+			runFile(scripts.get(0));
 		} else {
 			runPrompt();
 		}
 	}
 
+	private static void usage() {
+		System.out.println("Usage: jlox [--engine=tree|flat|vm] [--flush=line|block] [--profile[=FILE]] [--profile-in=FILE]");
+		System.out.println("            [--profile-out=FILE] [--snapshot-in=FILE] [--snapshot-out=FILE] [limits] [script]");
+		System.out.println("       jlox --counts [--flush=line|block] [limits] <script>");
+		System.out.println("       jlox --batch [--jobs=N] [--engine=tree|flat|vm] [--profile-in=FILE] [--snapshot-in=FILE] [limits] <dir|list file>...");
+		System.out.println("       jlox bench [--engine=tree|flat|vm|all] [--warmup=N] [--runs=N] [--no-lowering]");
+		System.out.println("                  [--save=FILE] [--baseline=FILE] [--threshold=PERCENT] [dir|list file]...");
+		System.out.println("       jlox check");
+		System.out.println("Limits: --max-steps=N --timeout=MS --max-depth=N --max-allocations=N");
+		System.exit(64);
+	}
+
+	private static LoxSnapshot loadSnapshot(String file) {
+		try {
+			return engine.loadSnapshot(Paths.get(file));
+		} catch (IOException e) {
+			System.err.println("Can't load snapshot " + file + ": " + e.getMessage());
+			System.exit(66);
+			return null;
+		}
+	}
+
+	private static void saveSnapshot() {
+		try {
+			context.saveSnapshot(Paths.get(snapshotOut));
+		} catch (IOException e) {
+			System.err.println("Can't save snapshot " + snapshotOut + ": " + e.getMessage());
+			hadRuntimeError = true;
+		}
+	}
+
+	private static void runBatch(List<String> inputs, int jobs, LoxLimits limits, LoxSnapshot snapshot) throws IOException {
+		long start = System.nanoTime();
+		List<LoxBatch.Result> results;
+		try {
+			results = new LoxBatch(engine, jobs, limits, snapshot).run(LoxBatch.collect(inputs));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+		LoxBatch.writeSummary(results, System.nanoTime() - start, System.out);
+		for (LoxBatch.Result result : results) {
+			if (result.exitCode != 0) System.exit(1);
+		}
+	}
+
+	private static void bench(String[] args) throws IOException {
+		List<String> inputs = new ArrayList<>();
+		List<LoxEngine.Kind> engines = new ArrayList<>();
+		int warmup = 5;
+		int runs = 20;
+		String save = null;
+		String baseline = null;
+		double threshold = 10;
+		boolean lowering = true;
+		for (String arg : args) {
+			if (arg.equals("--no-lowering")) {
+				lowering = false;
+			} else if (arg.equals("--engine=all")) {
+				engines.addAll(Arrays.asList(LoxEngine.Kind.values()));
+			} else if (arg.startsWith("--engine=")) {
+				String kind = arg.substring("--engine=".length());
+				switch (kind) {
+					case "tree": engines.add(LoxEngine.Kind.TREE); break;
+					case "flat": engines.add(LoxEngine.Kind.FLAT); break;
+					case "vm": engines.add(LoxEngine.Kind.VM); break;
+					default: usage();
+				}
+			} else if (arg.startsWith("--warmup=")) {
+				warmup = Integer.parseInt(arg.substring("--warmup=".length()));
+			} else if (arg.startsWith("--runs=")) {
+				runs = Integer.parseInt(arg.substring("--runs=".length()));
+			} else if (arg.startsWith("--save=")) {
+				save = arg.substring("--save=".length());
+			} else if (arg.startsWith("--baseline=")) {
+				baseline = arg.substring("--baseline=".length());
+			} else if (arg.startsWith("--threshold=")) {
+				threshold = Double.parseDouble(arg.substring("--threshold=".length()));
+			} else if (arg.startsWith("--")) {
+				usage();
+			} else {
+				inputs.add(arg);
+			}
+		}
+		if (engines.isEmpty()) engines.add(LoxEngine.Kind.TREE);
+		if (inputs.isEmpty()) inputs.add("benchmarks");
+		if (runs < 1 || warmup < 0) usage();
+
+		List<LoxBench.Result> results = new LoxBench(engines, warmup, runs, lowering).run(LoxBatch.collect(inputs));
+		LoxBench.writeTable(results, System.out);
+		if (save != null) {
+			try (PrintStream out = new PrintStream(Files.newOutputStream(Paths.get(save)), true)) {
+				LoxBench.writeJson(results, out);
+			}
+		}
+
+		int regressions = 0;
+		if (baseline != null) {
+			System.out.println();
+			regressions = LoxBench.compare(results, LoxBench.readBaseline(Paths.get(baseline)), threshold, System.out);
+		}
+		for (LoxBench.Result result : results) {
+			if (result.error != null) System.exit(70);
+		}
+		if (regressions > 0) System.exit(1);
+	}
+
 	private static void runFile(String path) throws IOException {
 		byte[] bytes = Files.readAllBytes(Paths.get(path));
-		run(new String(bytes, Charset.defaultCharset()));
+		String source = new String(bytes, Charset.defaultCharset());
+		try {
+			run(source, Paths.get(path));
+			// the globals the script left, unless it failed part way
+			if (snapshotOut != null && !hadError && !hadRuntimeError) saveSnapshot();
+		} finally {
+			context.flush();
+			writeProfile();
+			if (counters != null) counters.writeReport(source, System.err);
+		}
+		// a script that compiled is known to run, even if it failed part way
+		if (profileOut != null && !hadError) LoxFeedback.save(Paths.get(profileOut), source);
 		if (hadError) System.exit(65);
 		if (hadRuntimeError) System.exit(70);
 	}
@@ -37,54 +260,35 @@ public class Lox {
 		InputStreamReader input = new InputStreamReader(System.in);
 		BufferedReader reader = new BufferedReader(input);
 		for (;;) {
+			context.flush();
 			System.out.print("> ");
 			String line = reader.readLine();
 			if (line == null) {
 				break;
 			}
-			run(line);
+			run(line, null);
 			hadError = false;
 		}
+		writeProfile();
 	}
 
-	private static void run(String source) {
-		Scanner scanner = new Scanner(source);
-
-		List<Token> tokens = scanner.scanTokens();
-
-		Parser parser = new Parser(tokens);
-
-		List<Stmt> statements = parser.parse();
-
-		if (hadError) return;
-
-		Resolver resolver = new Resolver(interpreter);
-		resolver.resolve(statements);
-
-		if (hadError) return;
-
-		interpreter.interpret(statements);
-	}
-
-	static void error(int line, String message) {
-		report(line, "", message);
+	private static void writeProfile() throws IOException {
+		if (profiler == null) return;
+		profiler.stop();
+		profiler.writeCollapsed(Paths.get(profileFile));
+		profiler.writeTable(System.err);
 	}
 
-	private static void report(int line, String where, String message) {
-		System.out.println("[line "+line+"] Error" + where + ": " + message);
-		hadError = true;
-	}
-
-	static void error(Token token, String message) {
-		if (token.type == TokenType.EOF) {
-			report(token.line, " at end", message);
-		} else {
-			report(token.line, " at '" + token.lexeme + "'", message);
+	private static void run(String source, Path file) {
+		LoxScript script = engine.compile(source, file);
+		for (String error : script.errors()) {
+			System.out.println(error);
+		}
+		if (script.hasErrors()) {
+			hadError = true;
+			return;
 		}
-	}
 
-    public static void runtimeError(RuntimeError e) {
-		System.err.println(e.getMessage() + "\n[line " + e.token.line +"]");
-		hadRuntimeError = true;
-    }
+		if (!context.run(script)) hadRuntimeError = true;
+	}
 }
@@ -0,0 +1,175 @@
+package com.light.jlox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs many independent scripts in one JVM. Every file is compiled and run
+ * in its own context on a work-stealing pool, with its output captured,
+ * and the results are written as one JSON summary.
+ */
+class LoxBatch {
+
+    static class Result {
+        final String file;
+        final int exitCode;
+        final String stdout;
+        final String stderr;
+        final long nanos;
+
+        Result(String file, int exitCode, String stdout, String stderr, long nanos) {
+            this.file = file;
+            this.exitCode = exitCode;
+            this.stdout = stdout;
+            this.stderr = stderr;
+            this.nanos = nanos;
+        }
+    }
+
+    private final LoxEngine engine;
+    private final int jobs;
+    private final LoxLimits limits;
+    // restored into every file's context before it runs, or null
+    private final LoxSnapshot snapshot;
+
+    LoxBatch(LoxEngine engine, int jobs, LoxLimits limits, LoxSnapshot snapshot) {
+        this.engine = engine;
+        this.jobs = jobs;
+        this.limits = limits;
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Expands directories into the .lox files below them and list files into
+     * the paths they name; .lox files are taken as they are.
+     */
+    static List<Path> collect(List<String> inputs) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (String input : inputs) {
+            Path path = Paths.get(input);
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> walk = Files.walk(path)) {
+                    files.addAll(walk
+                        .filter(file -> Files.isRegularFile(file) && file.toString().endsWith(".lox"))
+                        .sorted()
+                        .collect(Collectors.toList()));
+                }
+            } else if (input.endsWith(".lox")) {
+                files.add(path);
+            } else {
+                for (String line : Files.readAllLines(path, Charset.defaultCharset())) {
+                    if (!line.isBlank()) files.add(Paths.get(line.trim()));
+                }
+            }
+        }
+        return files;
+    }
+
+    List<Result> run(List<Path> files) throws InterruptedException {
+        ForkJoinPool pool = new ForkJoinPool(jobs);
+        try {
+            List<Future<Result>> pending = new ArrayList<>();
+            for (Path file : files) {
+                pending.add(pool.submit(() -> runFile(file)));
+            }
+            List<Result> results = new ArrayList<>();
+            for (Future<Result> result : pending) {
+                try {
+                    results.add(result.get());
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+            return results;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private Result runFile(Path file) {
+        long start = System.nanoTime();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        PrintStream outStream = new PrintStream(out, true);
+        PrintStream errStream = new PrintStream(err, true);
+
+        int exitCode;
+        try {
+            String source = new String(Files.readAllBytes(file), Charset.defaultCharset());
+            LoxScript script = engine.compile(source, file);
+            if (script.hasErrors()) {
+                script.errors().forEach(outStream::println);
+                exitCode = 65;
+            } else {
+                LoxContext context = engine.newContext(outStream, errStream, LoxOutput.Flush.BLOCK, limits);
+                if (snapshot != null) context.restore(snapshot);
+                exitCode = context.run(script) ? 0 : 70;
+            }
+        } catch (IOException e) {
+            errStream.println("Can't read " + file + ": " + e.getMessage());
+            exitCode = 66;
+        } catch (RuntimeException | StackOverflowError e) {
+            errStream.println("Internal error: " + e);
+            exitCode = 70;
+        }
+        return new Result(file.toString(), exitCode, out.toString(), err.toString(), System.nanoTime() - start);
+    }
+
+    static void writeSummary(List<Result> results, long nanos, PrintStream out) {
+        int failed = 0;
+        for (Result result : results) {
+            if (result.exitCode != 0) failed++;
+        }
+        out.println("{");
+        out.println("  \"files\": " + results.size() + ",");
+        out.println("  \"passed\": " + (results.size() - failed) + ",");
+        out.println("  \"failed\": " + failed + ",");
+        out.println("  \"millis\": " + nanos / 1_000_000 + ",");
+        out.println("  \"results\": [");
+        for (int i = 0; i < results.size(); i++) {
+            Result result = results.get(i);
+            out.print("    {\"file\": " + quote(result.file)
+                + ", \"exitCode\": " + result.exitCode
+                + ", \"millis\": " + result.nanos / 1_000_000
+                + ", \"stdout\": " + quote(result.stdout)
+                + ", \"stderr\": " + quote(result.stderr) + "}");
+            out.println(i < results.size() - 1 ? "," : "");
+        }
+        out.println("  ]");
+        out.println("}");
+    }
+
+    static String quote(String text) {
+        StringBuilder builder = new StringBuilder(text.length() + 2);
+        builder.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"': builder.append("\\\""); break;
+                case '\\': builder.append("\\\\"); break;
+                case '\n': builder.append("\\n"); break;
+                case '\r': builder.append("\\r"); break;
+                case '\t': builder.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        builder.append(String.format("\\u%04x", (int)c));
+                    } else {
+                        builder.append(c);
+                    }
+            }
+        }
+        return builder.append('"').toString();
+    }
+}
@@ -0,0 +1,186 @@
+package com.light.jlox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Times Lox scripts in-process, so JVM startup stays out of the numbers.
+ * Each script is compiled once per engine, run a number of times to warm
+ * up and then a number of times measured, every run in a fresh context.
+ * Results can be saved as JSON and later runs checked against them.
+ */
+class LoxBench {
+
+    static class Result {
+        final String script;
+        final LoxEngine.Kind engine;
+        final double medianMillis;
+        final double p99Millis;
+        final String error;
+
+        Result(String script, LoxEngine.Kind engine, double medianMillis, double p99Millis, String error) {
+            this.script = script;
+            this.engine = engine;
+            this.medianMillis = medianMillis;
+            this.p99Millis = p99Millis;
+            this.error = error;
+        }
+
+        double opsPerSecond() {
+            return medianMillis == 0 ? 0 : 1000 / medianMillis;
+        }
+
+        String key() {
+            return script + " " + engine.name().toLowerCase();
+        }
+    }
+
+    private static final PrintStream DISCARD = new PrintStream(OutputStream.nullOutputStream());
+    private static final Pattern FIELD = Pattern.compile("\"(\\w+)\": (\"(?:[^\"\\\\]|\\\\.)*\"|[-0-9.eE]+)");
+
+    private final List<LoxEngine.Kind> engines;
+    private final int warmup;
+    private final int runs;
+    private final boolean lowering;
+
+    LoxBench(List<LoxEngine.Kind> engines, int warmup, int runs, boolean lowering) {
+        this.engines = engines;
+        this.warmup = warmup;
+        this.runs = runs;
+        this.lowering = lowering;
+    }
+
+    List<Result> run(List<Path> files) throws IOException {
+        List<Result> results = new ArrayList<>();
+        for (Path file : files) {
+            String source = new String(Files.readAllBytes(file), Charset.defaultCharset());
+            String expected = null;
+            for (LoxEngine.Kind kind : engines) {
+                Result result = run(file.toString(), source, kind);
+                // engines must agree, or the comparison is meaningless
+                if (result.error == null) {
+                    String output = output(kind, source);
+                    if (expected == null) {
+                        expected = output;
+                    } else if (!expected.equals(output)) {
+                        result = new Result(result.script, kind, 0, 0, "Output differs from the " + engines.get(0).name().toLowerCase() + " engine.");
+                    }
+                }
+                results.add(result);
+            }
+        }
+        return results;
+    }
+
+    private Result run(String name, String source, LoxEngine.Kind kind) {
+        LoxEngine engine = new LoxEngine(kind, lowering);
+        LoxScript script = engine.compile(source);
+        if (script.hasErrors()) return new Result(name, kind, 0, 0, script.errors().get(0));
+
+        for (int i = 0; i < warmup; i++) {
+            if (!once(engine, script, DISCARD)) return new Result(name, kind, 0, 0, "Runtime error.");
+        }
+        long[] nanos = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            if (!once(engine, script, DISCARD)) return new Result(name, kind, 0, 0, "Runtime error.");
+            nanos[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+        return new Result(name, kind, percentile(nanos, 50), percentile(nanos, 99), null);
+    }
+
+    private static boolean once(LoxEngine engine, LoxScript script, PrintStream out) {
+        return engine.newContext(out, DISCARD).run(script);
+    }
+
+    private static String output(LoxEngine.Kind kind, String source) {
+        LoxEngine engine = new LoxEngine(kind);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        once(engine, engine.compile(source), new PrintStream(out, true));
+        return out.toString();
+    }
+
+    // nearest-rank, on sorted samples
+    private static double percentile(long[] sorted, int percent) {
+        int rank = (int)Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)] / 1_000_000.0;
+    }
+
+    static void writeTable(List<Result> results, PrintStream out) {
+        out.println(String.format("%-36s %-6s %10s %10s %10s", "script", "engine", "median ms", "p99 ms", "ops/s"));
+        for (Result result : results) {
+            if (result.error != null) {
+                out.println(String.format("%-36s %-6s %s", result.script, result.engine.name().toLowerCase(), result.error));
+            } else {
+                out.println(String.format("%-36s %-6s %10.3f %10.3f %10.2f",
+                    result.script, result.engine.name().toLowerCase(),
+                    result.medianMillis, result.p99Millis, result.opsPerSecond()));
+            }
+        }
+    }
+
+    /** One result per line, so baselines diff well under version control. */
+    static void writeJson(List<Result> results, PrintStream out) {
+        out.println("[");
+        for (int i = 0; i < results.size(); i++) {
+            Result result = results.get(i);
+            out.print("  {\"script\": " + LoxBatch.quote(result.script)
+                + ", \"engine\": " + LoxBatch.quote(result.engine.name().toLowerCase())
+                + ", \"median\": " + result.medianMillis
+                + ", \"p99\": " + result.p99Millis
+                + ", \"opsPerSecond\": " + result.opsPerSecond() + "}");
+            out.println(i < results.size() - 1 ? "," : "");
+        }
+        out.println("]");
+    }
+
+    /** Reads the median of every script and engine from a file written by writeJson. */
+    static Map<String, Double> readBaseline(Path file) throws IOException {
+        Map<String, Double> medians = new HashMap<>();
+        for (String line : Files.readAllLines(file, Charset.defaultCharset())) {
+            Map<String, String> fields = new HashMap<>();
+            Matcher matcher = FIELD.matcher(line);
+            while (matcher.find()) fields.put(matcher.group(1), matcher.group(2));
+            if (!fields.containsKey("script") || !fields.containsKey("engine") || !fields.containsKey("median")) continue;
+            medians.put(unquote(fields.get("script")) + " " + unquote(fields.get("engine")),
+                Double.parseDouble(fields.get("median")));
+        }
+        return medians;
+    }
+
+    private static String unquote(String text) {
+        return text.substring(1, text.length() - 1).replace("\\\"", "\"").replace("\\\\", "\\");
+    }
+
+    /**
+     * Prints every result's change against the baseline and returns the
+     * number of scripts whose median got slower by more than the threshold.
+     */
+    static int compare(List<Result> results, Map<String, Double> baseline, double thresholdPercent, PrintStream out) {
+        int regressions = 0;
+        for (Result result : results) {
+            Double before = baseline.get(result.key());
+            if (before == null || result.error != null || before == 0) continue;
+            double change = 100 * (result.medianMillis - before) / before;
+            boolean regressed = change > thresholdPercent;
+            if (regressed) regressions++;
+            out.println(String.format("%-36s %-6s %10.3f -> %10.3f %+7.1f%%%s",
+                result.script, result.engine.name().toLowerCase(), before, result.medianMillis, change,
+                regressed ? "  REGRESSION" : ""));
+        }
+        return regressions;
+    }
+}
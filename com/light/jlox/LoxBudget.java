@@ -0,0 +1,64 @@
+package com.light.jlox;
+
+/**
+ * What is left of a context's LoxLimits during one run. Interpreters hold
+ * it in their budget field, which stays null when there are no limits so
+ * the checks cost a single field test.
+ *
+ * Fibers and parallel workers share the budget of the interpreter they were
+ * forked from, and start counting depth where it was. The counters are not
+ * synchronized, so with several threads running the limits are enforced
+ * approximately. Natives that block wait no longer than the time left.
+ */
+final class LoxBudget {
+    // reading the clock on every step would cost more than the step
+    private static final int CLOCK_INTERVAL = 4096;
+
+    private final int maxDepth;
+    private final boolean hasDeadline;
+    private final long deadline;
+    private long steps;
+    private long allocations;
+    private int untilClock = CLOCK_INTERVAL;
+
+    LoxBudget(LoxLimits limits) {
+        this.maxDepth = limits.maxDepth;
+        this.hasDeadline = limits.timeoutNanos > 0;
+        this.deadline = System.nanoTime() + limits.timeoutNanos;
+        this.steps = limits.maxSteps;
+        this.allocations = limits.maxAllocations;
+    }
+
+    void step(Token token) {
+        if (--steps < 0) {
+            throw new RuntimeError(token, "Step limit exceeded.");
+        }
+        if (--untilClock == 0) {
+            untilClock = CLOCK_INTERVAL;
+            if (hasDeadline && System.nanoTime() - deadline > 0) {
+                throw new RuntimeError(token, "Time limit exceeded.");
+            }
+        }
+    }
+
+    /** Nanoseconds left until the deadline, Long.MAX_VALUE without one. */
+    long remaining() {
+        if (!hasDeadline) return Long.MAX_VALUE;
+        return Math.max(0, deadline - System.nanoTime());
+    }
+
+    /** Counts a call made at the given depth of Lox calls. */
+    void call(Token token, int depth) {
+        if (depth >= maxDepth) {
+            throw new RuntimeError(token, "Stack overflow.");
+        }
+        step(token);
+    }
+
+    void allocate(Token token, long amount) {
+        allocations -= amount;
+        if (allocations < 0) {
+            throw new RuntimeError(token, "Allocation limit exceeded.");
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.light.jlox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Properties a plain run doesn't show, checked in-process by `jlox check`:
+ * every engine stops runaway recursion, of functions, methods or
+ * initializers, at exactly the same depth, whether the calls start in the
+ * script, a fiber or a parallel call, and traces a fiber's failure through
+ * the fiber's function. Instances of every width LoxInstance lays out
+ * differently keep their fields on every engine and through a snapshot,
+ * within a fixed allocation budget. Each failure is printed; any failure
+ * makes the check fail.
+ */
+final class LoxCheck {
+    private static final PrintStream DISCARD = new PrintStream(OutputStream.nullOutputStream());
+    private static final int MAX_DEPTH = 50;
+
+    // prints the depth of every call until the limit stops it
+    private static final String RECURSION = "fun down(n) { print n; down(n + 1); }\n";
+
+    // none, the most kept in order, the first hashed, the most the first
+    // table holds, the first rehash, and several rehashes
+    private static final int[] WIDTHS = {0, 8, 9, 24, 25, 100};
+    // bytes allocated for an instance of each width with its fields, values
+    // excluded, including the arrays it outgrew; with compressed oops
+    private static final long[] INSTANCE_BYTES = {32, 240, 528, 528, 1072, 4208};
+    private static final int INSTANCES = 1000;
+
+    private final List<String> failures = new ArrayList<>();
+
+    /** Runs every check, printing each failure, and returns the number of them. */
+    int run(PrintStream out) {
+        depthLimit("script", RECURSION + "down(1);\n", MAX_DEPTH);
+        depthLimit("initializer", "class Down { init(n) { print n; Down(n + 1); } }\nDown(1);\n", MAX_DEPTH);
+        depthLimit("method", "class Down { go(n) { print n; this.go(n + 1); } }\nDown().go(1);\n", MAX_DEPTH);
+        // the native that starts the fiber or the parallel call is a call too
+        depthLimit("fiber", RECURSION + "fun start() { down(1); }\njoin(spawn(start));\n", MAX_DEPTH - 1);
+        depthLimit("parallel", RECURSION + "var l = list(); append(l, 1);\n"
+            + "fun start(_x) { down(1); }\nparallelMap(l, start);\n", MAX_DEPTH - 1);
+        traceback("joined fiber", "fun work() {\n  nil + 1;\n}\njoin(spawn(work));\n",
+            "[line 2] in work()\n[line 4] in script");
+        // a fiber still running when the script ends is reported by a later run
+        traceback("unjoined fiber", "fun work() {\n  nil + 1;\n}\nspawn(work);\nsleep(0.1);\n",
+            "[line 2] in work()\nin a fiber never joined");
+        wideInstances();
+        instanceBytes();
+
+        for (String failure : failures) out.println(failure);
+        out.println(failures.isEmpty() ? "All checks passed." : failures.size() + " checks failed.");
+        return failures.size();
+    }
+
+    private void depthLimit(String name, String source, int deepest) {
+        LoxLimits limits = LoxLimits.NONE.withMaxDepth(MAX_DEPTH);
+        for (LoxEngine.Kind kind : LoxEngine.Kind.values()) {
+            LoxEngine engine = new LoxEngine(kind);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            boolean ran = engine.newContext(new PrintStream(out, true), DISCARD, LoxOutput.Flush.LINE, limits)
+                .run(engine.compile(source));
+            String[] lines = out.toString().trim().split("\n");
+            String last = lines[lines.length - 1];
+            if (ran || !last.equals(Integer.toString(deepest))) {
+                failures.add("Depth limit, " + name + ", " + kind.name().toLowerCase() + " engine: reached "
+                    + last + " of " + MAX_DEPTH + " calls, expected " + deepest + ".");
+            }
+        }
+    }
+
+    private void traceback(String name, String source, String expected) {
+        for (LoxEngine.Kind kind : LoxEngine.Kind.values()) {
+            LoxEngine engine = new LoxEngine(kind);
+            ByteArrayOutputStream err = new ByteArrayOutputStream();
+            engine.newContext(DISCARD, new PrintStream(err, true), LoxOutput.Flush.LINE, LoxLimits.NONE)
+                .run(engine.compile(source));
+            String trace = err.toString().trim();
+            if (!trace.endsWith(expected)) {
+                failures.add("Traceback, " + name + ", " + kind.name().toLowerCase() + " engine: got\n"
+                    + trace + "\nexpected it to end with\n" + expected);
+            }
+        }
+    }
+
+    // sets, reads and overwrites every field of r<width>, printing the sums
+    private static String fields(int width, String before, String after) {
+        StringBuilder source = new StringBuilder();
+        String instance = "r" + width;
+        StringBuilder sum = new StringBuilder("0");
+        for (int i = 0; i < width; i++) {
+            source.append(before.replace("$", instance + ".f" + i).replace("#", Integer.toString(i)));
+            sum.append(" + ").append(instance).append(".f").append(i);
+        }
+        source.append("print ").append(sum).append(";\n");
+        for (int i = 0; i < width; i++) {
+            source.append(after.replace("$", instance + ".f" + i));
+        }
+        return source.append("print ").append(sum).append(";\n").toString();
+    }
+
+    private void wideInstances() {
+        StringBuilder source = new StringBuilder("class Record {}\n");
+        StringBuilder restored = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        StringBuilder expectedRestored = new StringBuilder();
+        for (int width : WIDTHS) {
+            source.append("var r").append(width).append(" = Record();\n")
+                .append(fields(width, "$ = #;\n", "$ = $ + $;\n"));
+            restored.append(fields(width, "", "$ = $ + 1;\n"));
+            long sum = (long)width * (width - 1) / 2;
+            expected.append(sum).append('\n').append(2 * sum).append('\n');
+            expectedRestored.append(2 * sum).append('\n').append(2 * sum + width).append('\n');
+        }
+
+        for (LoxEngine.Kind kind : LoxEngine.Kind.values()) {
+            String engineName = kind.name().toLowerCase() + " engine";
+            LoxEngine engine = new LoxEngine(kind);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            LoxContext context = engine.newContext(new PrintStream(out, true), DISCARD, LoxOutput.Flush.LINE, LoxLimits.NONE);
+            context.run(engine.compile(source.toString()));
+            if (!out.toString().equals(expected.toString())) {
+                failures.add("Wide instances, " + engineName + ": printed\n" + out + "expected\n" + expected);
+                continue;
+            }
+
+            // a snapshot reads the fields out and defines them again
+            out.reset();
+            try {
+                Path file = Files.createTempFile("jlox-check", ".snapshot");
+                try {
+                    context.saveSnapshot(file);
+                    context = engine.newContext(new PrintStream(out, true), DISCARD, LoxOutput.Flush.LINE, LoxLimits.NONE);
+                    context.restore(engine.loadSnapshot(file));
+                } finally {
+                    Files.delete(file);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            context.run(engine.compile(restored.toString()));
+            if (!out.toString().equals(expectedRestored.toString())) {
+                failures.add("Wide instances after a snapshot, " + engineName + ": printed\n" + out
+                    + "expected\n" + expectedRestored);
+            }
+        }
+    }
+
+    private void instanceBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) return;
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean)threads;
+        long thread = Thread.currentThread().getId();
+
+        LoxClass klass = new LoxClass("Record", null, new HashMap<>(), new Globals(new Globals.Slots()));
+        LoxInstance[] instances = new LoxInstance[INSTANCES];
+        for (int w = 0; w < WIDTHS.length; w++) {
+            Token[] names = new Token[WIDTHS[w]];
+            Object[] values = new Object[WIDTHS[w]];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = new Token(TokenType.IDENTIFIER, "f" + i, null, 1);
+                values[i] = (double)i;
+            }
+            // the least of a few rounds, so nothing a first run loads is counted
+            long bytes = Long.MAX_VALUE;
+            for (int round = 0; round < 3; round++) {
+                long before = allocations.getThreadAllocatedBytes(thread);
+                for (int n = 0; n < INSTANCES; n++) {
+                    LoxInstance instance = new LoxInstance(klass);
+                    for (int i = 0; i < names.length; i++) instance.set(names[i], values[i]);
+                    instances[n] = instance;
+                }
+                bytes = Math.min(bytes, (allocations.getThreadAllocatedBytes(thread) - before) / INSTANCES);
+            }
+            if (bytes > INSTANCE_BYTES[w]) {
+                failures.add("Instance size: " + WIDTHS[w] + " fields cost " + bytes + " bytes, the budget is "
+                    + INSTANCE_BYTES[w] + ".");
+            }
+        }
+    }
+}
@@ -6,12 +6,16 @@ import java.util.Map;
 class LoxClass implements LoxCallable {
     final String name;
     final LoxClass superclass;
-    private final Map<String, LoxFunction> methods;
+    private final Map<String, LoxMethod> methods;
+    // of the context declaring the class, whose fibers share its instances
+    final Globals globals;
 
-    LoxClass(String name, LoxClass superclass, final Map<String, LoxFunction> methods) {
+    LoxClass(String name, LoxClass superclass, final Map<String, LoxMethod> methods, Globals globals) {
         this.superclass = superclass;
+        this.globals = globals;
         this.methods = methods;
         this.name = name;
+        if (LoxEvents.ENABLED) LoxEvents.classDefined(this);
     }
 
     @Override
@@ -21,24 +25,38 @@ class LoxClass implements LoxCallable {
 
     @Override
     public int arity() {
-        LoxFunction initializer = getInitializer();
+        LoxMethod initializer = getInitializer();
         if (initializer != null) return initializer.arity();
         return 0;
     }
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        LoxInstance instance = new LoxInstance(this);
-        LoxFunction initializer = getInitializer();
+        LoxInstance instance = instantiate(interpreter, null);
+        LoxMethod initializer = getInitializer();
         if (initializer != null) initializer.bind(instance).call(interpreter, arguments);
         return instance;
     }
 
-    public LoxFunction getInitializer() {
+    /** A new instance, not yet initialized; the VM runs the initializer itself. */
+    LoxInstance instantiate(Interpreter interpreter, Token token) {
+        if (interpreter.budget != null) interpreter.budget.allocate(token, 1);
+        LoxInstance instance = new LoxInstance(this);
+        if (LoxEvents.ENABLED) LoxEvents.instanceCreated(this);
+        if (LoxMetrics.ENABLED) LoxMetrics.INSTANCES.increment();
+        return instance;
+    }
+
+    public LoxMethod getInitializer() {
         return findMethod("init");
     }
 
-    public LoxFunction findMethod(String name) {
+    /** The methods declared by this class itself; a snapshot being restored fills them in. */
+    Map<String, LoxMethod> methods() {
+        return methods;
+    }
+
+    public LoxMethod findMethod(String name) {
         if (methods.containsKey(name)) {
             return methods.get(name);
         }
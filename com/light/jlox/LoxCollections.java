@@ -0,0 +1,120 @@
+package com.light.jlox;
+
+import java.util.List;
+
+/**
+ * Collection natives: list, map, append, get, set, length, keys, has and
+ * remove. get and set work on lists and maps alike, the same as indexing.
+ */
+final class LoxCollections {
+
+    private LoxCollections() {}
+
+    static void define(Environment globals) {
+        globals.define("list", new LoxNative(0) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                if (interpreter.budget != null) interpreter.budget.allocate(null, 1);
+                return new LoxList(interpreter.globals);
+            }
+        });
+
+        globals.define("append", new LoxNative(2) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                if (interpreter.budget != null) interpreter.budget.allocate(null, 1);
+                list(arguments.get(0)).add(arguments.get(1));
+                return null;
+            }
+        });
+
+        globals.define("get", new LoxNative(2) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return interpreter.getIndex(null, arguments.get(0), arguments.get(1));
+            }
+        });
+
+        globals.define("set", new LoxNative(3) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return interpreter.setIndex(null, arguments.get(0), arguments.get(1), arguments.get(2));
+            }
+        });
+
+        globals.define("length", new LoxNative(1) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                Object value = arguments.get(0);
+                if (value instanceof LoxMap) return LoxValues.number(((LoxMap)value).size());
+                if (value instanceof LoxList) return LoxValues.number(((LoxList)value).size());
+                throw new RuntimeError(null, "Can only take the length of lists and maps.");
+            }
+        });
+
+        globals.define("map", new LoxNative(0) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                if (interpreter.budget != null) interpreter.budget.allocate(null, 1);
+                return new LoxMap(interpreter.globals);
+            }
+        });
+
+        globals.define("keys", new LoxNative(1) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return map(arguments.get(0)).keys();
+            }
+        });
+
+        globals.define("has", new LoxNative(2) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return LoxValues.bool(map(arguments.get(0)).has(key(null, arguments.get(1))));
+            }
+        });
+
+        globals.define("remove", new LoxNative(2) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return map(arguments.get(0)).remove(key(null, arguments.get(1)));
+            }
+        });
+    }
+
+    static LoxList list(Object value) {
+        if (!(value instanceof LoxList)) {
+            throw new RuntimeError(null, "Expected a list.");
+        }
+        return (LoxList)value;
+    }
+
+    static LoxMap map(Object value) {
+        if (!(value instanceof LoxMap)) {
+            throw new RuntimeError(null, "Expected a map.");
+        }
+        return (LoxMap)value;
+    }
+
+    static int index(Token token, LoxList list, Object index) {
+        if (!(index instanceof Double)) {
+            throw new RuntimeError(token, "List index must be a number.");
+        }
+        return index(token, list, (double)index);
+    }
+
+    static int index(Token token, LoxList list, double number) {
+        int index = (int)number;
+        if (index != number || index < 0 || index >= list.size()) {
+            throw new RuntimeError(token, "List index out of range.");
+        }
+        return index;
+    }
+
+    static Object key(Token token, Object key) {
+        if (!LoxMap.isKey(key)) {
+            throw new RuntimeError(token, "Map keys must be strings or numbers.");
+        }
+        return key;
+    }
+}
@@ -0,0 +1,119 @@
+package com.light.jlox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+
+/**
+ * An isolated interpreter: its own globals, output sink and error state.
+ * Definitions made by one run are visible to later runs in the same
+ * context, like lines typed into the REPL. A context runs one script at a
+ * time; use one context per thread to run scripts concurrently.
+ *
+ * A context created with LoxLimits stops scripts that run too long, recurse
+ * too deep or allocate too much with a runtime error, leaving the context
+ * usable for further runs.
+ *
+ * The globals a context has built up can be saved as a LoxSnapshot and
+ * restored into a fresh context, in this process or another.
+ */
+public final class LoxContext {
+    private final Interpreter interpreter;
+    private final PrintStream err;
+    private final LoxLimits limits;
+    private boolean hadRuntimeError = false;
+
+    LoxContext(Interpreter interpreter, PrintStream err, LoxLimits limits) {
+        this.interpreter = interpreter;
+        this.err = err;
+        this.limits = limits;
+    }
+
+    /**
+     * Runs the script, returning false if it stopped with a runtime error.
+     * The context's limits apply to each run separately.
+     */
+    public synchronized boolean run(LoxScript script) {
+        if (script.hasErrors()) {
+            throw new IllegalArgumentException("Can't run a script with compile errors.");
+        }
+        if (script.kind != LoxSnapshot.kindOf(interpreter)) {
+            throw new IllegalArgumentException("Can't run a script compiled by another kind of engine.");
+        }
+        if (script.slots != interpreter.globals.slots) {
+            throw new IllegalArgumentException("Can't run a script compiled by another engine.");
+        }
+        interpreter.budget = limits.isUnlimited() ? null : new LoxBudget(limits);
+        interpreter.modules = script.modules;
+        if (interpreter.shadow != null) interpreter.shadow.push("<script>", 0);
+        try {
+            LoxEngine.phase("interpret", () -> {
+                interpreter.interpret(script);
+                return null;
+            });
+            return reportFailedFibers();
+        } catch (RuntimeError e) {
+            report(e);
+            reportFailedFibers();
+            return false;
+        } finally {
+            if (interpreter.shadow != null) interpreter.shadow.reset();
+            interpreter.output.flush();
+        }
+    }
+
+    private void report(RuntimeError e) {
+        if (LoxEvents.ENABLED) LoxEvents.runtimeError(e);
+        interpreter.output.flush();
+        err.println(e.getMessage() + "\n" + e.traceback());
+        hadRuntimeError = true;
+    }
+
+    /**
+     * Reports the errors of fibers that failed without being joined, which
+     * would otherwise go unseen, returning false if there were any. A fiber
+     * still running when the run ends is reported at the end of a later one.
+     */
+    private boolean reportFailedFibers() {
+        boolean none = true;
+        for (LoxFibers.Fiber fiber; (fiber = interpreter.failedFibers.poll()) != null; ) {
+            if (fiber.joined) continue;
+            Throwable error = fiber.result.handle((value, e) -> e).join();
+            if (error instanceof RuntimeError) {
+                report((RuntimeError)error);
+            } else {
+                interpreter.output.flush();
+                err.println("Fiber failed: " + error);
+                hadRuntimeError = true;
+            }
+            none = false;
+        }
+        return none;
+    }
+
+    /** Saves the globals and everything reachable from them to the file. */
+    public synchronized void saveSnapshot(Path file) throws IOException {
+        LoxSnapshot.save(interpreter, file);
+    }
+
+    /**
+     * Defines the globals saved in the snapshot, as if the script that set
+     * them up had run here. The snapshot must come from this context's engine.
+     */
+    public synchronized void restore(LoxSnapshot snapshot) throws IOException {
+        snapshot.restore(interpreter);
+    }
+
+    /** Records this context's calls in the profiler's samples from now on. */
+    void profile(LoxProfiler profiler) {
+        interpreter.shadow = profiler.newStack();
+    }
+
+    public synchronized boolean hadRuntimeError() {
+        return hadRuntimeError;
+    }
+
+    public synchronized void flush() {
+        interpreter.output.flush();
+    }
+}
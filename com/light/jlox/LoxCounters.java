@@ -0,0 +1,351 @@
+package com.light.jlox;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Execution counts for every statement and expression of the scripts run
+ * by a CountingInterpreter, plus operand type histograms for binary
+ * operators and callee histograms for calls. Sites are laid out once per
+ * script, when it is prepared, keyed by the node's first token. The
+ * modules a script imports are prepared along with it and reported after
+ * it, each under its path.
+ *
+ * Counts are plain longs; with fibers running they are approximate.
+ */
+final class LoxCounters {
+    private static final int HOTTEST = 10;
+
+    static final class Site {
+        final String kind;
+        // the module's path, null in the main script
+        final String file;
+        final int line;
+        final int column;
+        long count = 0;
+        Map<String, Long> types;
+        // where the histogram is drawn: the operator of a binary, else the node
+        Token anchor;
+
+        Site(String kind, String file, Token token) {
+            this.kind = kind;
+            this.file = file;
+            this.line = token.line;
+            this.column = token.column;
+            this.anchor = token;
+        }
+    }
+
+    private final Map<Object, Site> sites = new IdentityHashMap<>();
+    // binary operators and call parens, for the histograms
+    private final Map<Token, Site> operators = new IdentityHashMap<>();
+    // the imported modules' sources, by path, in the order they were prepared
+    private final Map<String, String> modules = new LinkedHashMap<>();
+
+    /** Lays out the sites of a script, or of the module at file unless already done. */
+    synchronized void prepare(String file, LoxScript script) {
+        if (file != null && modules.putIfAbsent(file, script.source) != null) return;
+        Layout layout = new Layout(file);
+        for (Stmt statement : script.statements()) {
+            layout.stmt(statement);
+        }
+    }
+
+    void count(Object node) {
+        Site site = sites.get(node);
+        if (site != null) site.count++;
+    }
+
+    void recordBinary(Token operator, Object left, Object right) {
+        record(operator, typeName(left) + " " + operator.lexeme + " " + typeName(right));
+    }
+
+    void recordCall(Token paren, Object callee) {
+        record(paren, callee instanceof LoxCallable ? LoxProfiler.name(callee) : typeName(callee));
+    }
+
+    private void record(Token token, String type) {
+        Site site = operators.get(token);
+        if (site == null) return;
+        if (site.types == null) site.types = new HashMap<>();
+        site.types.merge(type, 1L, Long::sum);
+    }
+
+    static String typeName(Object value) {
+        if (value == null) return "nil";
+        if (value instanceof Boolean) return "boolean";
+        if (value instanceof Double) return "number";
+        if (Interpreter.isString(value)) return "string";
+        if (value instanceof LoxList) return "list";
+        if (value instanceof LoxMap) return "map";
+        if (value instanceof LoxClass) return "class";
+        if (value instanceof LoxInstance) return "instance";
+        if (value instanceof LoxCallable) return "function";
+        return "object";
+    }
+
+    /**
+     * Prints the source, then each imported module's, with each line's
+     * highest count and the histograms under their operators.
+     */
+    synchronized void writeReport(String source, PrintStream out) {
+        writeSource(null, source, out);
+        for (Map.Entry<String, String> module : modules.entrySet()) {
+            out.println();
+            out.println(module.getKey() + ":");
+            writeSource(module.getKey(), module.getValue(), out);
+        }
+
+        out.println();
+        out.println("Hottest nodes:");
+        sites.values().stream()
+            .sorted((a, b) -> Long.compare(b.count, a.count))
+            .limit(HOTTEST)
+            .forEach(site -> out.println(String.format("%10d  %s%d:%d %s", site.count,
+                site.file == null ? "" : site.file + ":", site.line, site.column, site.kind)));
+    }
+
+    private void writeSource(String file, String source, PrintStream out) {
+        Map<Integer, Long> lineCounts = new HashMap<>();
+        Map<Integer, List<Site>> typed = new HashMap<>();
+        for (Site site : sites.values()) {
+            if (!Objects.equals(site.file, file)) continue;
+            lineCounts.merge(site.line, site.count, Math::max);
+            if (site.types != null) {
+                typed.computeIfAbsent(site.anchor.line, line -> new ArrayList<>()).add(site);
+            }
+        }
+
+        String[] lines = source.split("\n", -1);
+        for (int i = 0; i < lines.length; i++) {
+            int line = i + 1;
+            Long count = lineCounts.get(line);
+            out.println(String.format("%10s %4d | %s", count == null ? "" : count, line, lines[i]));
+            List<Site> annotated = typed.getOrDefault(line, new ArrayList<>());
+            annotated.sort(Comparator.comparingInt(site -> site.anchor.column));
+            for (Site site : annotated) {
+                out.println(String.format("%10s %4s | %s^ %s", "", "", indent(lines[i], site.anchor.column), histogram(site)));
+            }
+        }
+    }
+
+    // keeps tabs so the caret lines up under the source
+    private static String indent(String line, int column) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < column - 1 && i < line.length(); i++) {
+            builder.append(line.charAt(i) == '\t' ? '\t' : ' ');
+        }
+        return builder.toString();
+    }
+
+    private static String histogram(Site site) {
+        long total = 0;
+        for (long count : site.types.values()) total += count;
+        StringBuilder builder = new StringBuilder();
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(site.types.entrySet());
+        entries.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        for (Map.Entry<String, Long> entry : entries) {
+            if (builder.length() > 0) builder.append(", ");
+            builder.append(entry.getKey()).append(' ')
+                .append(String.format("%.0f%%", 100.0 * entry.getValue() / total));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Registers a site for every node, positioned at the node's first token.
+     * An empty block has none, and no site.
+     */
+    private class Layout implements Expr.Visitor<Token>, Stmt.Visitor<Token> {
+        private final String file;
+
+        Layout(String file) {
+            this.file = file;
+        }
+
+        private Token expr(Expr expr) {
+            Token token = expr.accept(this);
+            Site site = new Site(expr.getClass().getSimpleName(), file, token);
+            sites.put(expr, site);
+            if (expr instanceof Expr.Binary) {
+                site.anchor = ((Expr.Binary)expr).operator;
+                operators.put(site.anchor, site);
+            }
+            if (expr instanceof Expr.Call) operators.put(((Expr.Call)expr).paren, site);
+            return token;
+        }
+
+        private Token stmt(Stmt stmt) {
+            Token token = stmt.accept(this);
+            if (token != null) sites.put(stmt, new Site(stmt.getClass().getSimpleName(), file, token));
+            return token;
+        }
+
+        private Token body(List<Stmt> statements) {
+            Token first = null;
+            for (Stmt statement : statements) {
+                Token token = stmt(statement);
+                if (first == null) first = token;
+            }
+            return first;
+        }
+
+        @Override
+        public Token visitAssignExpr(Expr.Assign expr) {
+            expr(expr.value);
+            return expr.name;
+        }
+
+        @Override
+        public Token visitBinaryExpr(Expr.Binary expr) {
+            Token left = expr(expr.left);
+            expr(expr.right);
+            return left;
+        }
+
+        @Override
+        public Token visitCallExpr(Expr.Call expr) {
+            Token callee = expr(expr.callee);
+            for (Expr argument : expr.arguments) expr(argument);
+            return callee;
+        }
+
+        @Override
+        public Token visitGroupingExpr(Expr.Grouping expr) {
+            return expr(expr.expression);
+        }
+
+        @Override
+        public Token visitGetExpr(Expr.Get expr) {
+            return expr(expr.object);
+        }
+
+        @Override
+        public Token visitIndexExpr(Expr.Index expr) {
+            Token object = expr(expr.object);
+            expr(expr.index);
+            return object;
+        }
+
+        @Override
+        public Token visitLiteralExpr(Expr.Literal expr) {
+            return expr.token;
+        }
+
+        @Override
+        public Token visitLogicalExpr(Expr.Logical expr) {
+            Token left = expr(expr.left);
+            expr(expr.right);
+            return left;
+        }
+
+        @Override
+        public Token visitSetExpr(Expr.Set expr) {
+            Token object = expr(expr.object);
+            expr(expr.value);
+            return object;
+        }
+
+        @Override
+        public Token visitSetIndexExpr(Expr.SetIndex expr) {
+            Token object = expr(expr.object);
+            expr(expr.index);
+            expr(expr.value);
+            return object;
+        }
+
+        @Override
+        public Token visitSuperExpr(Expr.Super expr) {
+            return expr.keyword;
+        }
+
+        @Override
+        public Token visitThisExpr(Expr.This expr) {
+            return expr.keyword;
+        }
+
+        @Override
+        public Token visitUnaryExpr(Expr.Unary expr) {
+            expr(expr.right);
+            return expr.operator;
+        }
+
+        @Override
+        public Token visitVariableExpr(Expr.Variable expr) {
+            return expr.name;
+        }
+
+        @Override
+        public Token visitBlockStmt(Stmt.Block stmt) {
+            return body(stmt.statements);
+        }
+
+        @Override
+        public Token visitBreakStmt(Stmt.Break stmt) {
+            return stmt.keyword;
+        }
+
+        @Override
+        public Token visitClassStmt(Stmt.Class stmt) {
+            if (stmt.superclass != null) expr(stmt.superclass);
+            for (Stmt.Function method : stmt.methods) stmt(method);
+            return stmt.name;
+        }
+
+        @Override
+        public Token visitExpressionStmt(Stmt.Expression stmt) {
+            return expr(stmt.expression);
+        }
+
+        @Override
+        public Token visitFunctionStmt(Stmt.Function stmt) {
+            body(stmt.body);
+            return stmt.name;
+        }
+
+        @Override
+        public Token visitIfStmt(Stmt.If stmt) {
+            Token condition = expr(stmt.condition);
+            stmt(stmt.thenBranch);
+            if (stmt.elseBranch != null) stmt(stmt.elseBranch);
+            return condition;
+        }
+
+        @Override
+        public Token visitImportStmt(Stmt.Import stmt) {
+            return stmt.keyword;
+        }
+
+        @Override
+        public Token visitPrintStmt(Stmt.Print stmt) {
+            expr(stmt.expression);
+            return stmt.keyword;
+        }
+
+        @Override
+        public Token visitReturnStmt(Stmt.Return stmt) {
+            if (stmt.value != null) expr(stmt.value);
+            return stmt.keyword;
+        }
+
+        @Override
+        public Token visitVarStmt(Stmt.Var stmt) {
+            if (stmt.initializer != null) expr(stmt.initializer);
+            return stmt.name;
+        }
+
+        @Override
+        public Token visitWhileStmt(Stmt.While stmt) {
+            expr(stmt.condition);
+            stmt(stmt.body);
+            return stmt.keyword;
+        }
+    }
+}
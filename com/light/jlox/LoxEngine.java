@@ -0,0 +1,150 @@
+package com.light.jlox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Entry point for embedding Lox. An engine compiles source into shareable
+ * LoxScripts and creates isolated LoxContexts to run them in. Its only
+ * mutable state is the cache of imported modules and the numbering of the
+ * global names its scripts use, both thread-safe, so one engine can serve
+ * any number of threads.
+ */
+public final class LoxEngine {
+    public enum Kind {
+        TREE,
+        FLAT,
+        VM
+    }
+
+    private final Kind kind;
+    // off to measure the fused forms, or to count every node, see Lowering
+    private final boolean lowering;
+    // the scripts earlier runs recorded, or null, see LoxFeedback
+    private final LoxFeedback feedback;
+    private final LoxModules modules = new LoxModules(this::compileUnit);
+    private final Globals.Slots slots = new Globals.Slots();
+
+    public LoxEngine() {
+        this(Kind.TREE);
+    }
+
+    public LoxEngine(Kind kind) {
+        this(kind, true);
+    }
+
+    LoxEngine(Kind kind, boolean lowering) {
+        this(kind, lowering, null);
+    }
+
+    LoxEngine(Kind kind, boolean lowering, LoxFeedback feedback) {
+        this.kind = kind;
+        this.lowering = lowering;
+        this.feedback = feedback;
+    }
+
+    public Kind kind() {
+        return kind;
+    }
+
+    // for contexts made outside newContext, which must share the numbering
+    Globals.Slots slots() {
+        return slots;
+    }
+
+    /** Compiles the source, resolving its imports against the working directory. */
+    public LoxScript compile(String source) {
+        return compile(source, null);
+    }
+
+    /**
+     * Compiles source read from the file, resolving its imports against the
+     * file's directory. A null file is the same as compile(source).
+     */
+    public LoxScript compile(String source, Path file) {
+        Path path = file == null ? null : file.toAbsolutePath().normalize();
+        LoxScript script = compileUnit(source, path == null ? Path.of("").toAbsolutePath() : path.getParent());
+        // each module is timed as a compile of its own, on whichever thread loads it
+        if (!script.imports.isEmpty()) script = modules.link(script, path == null ? null : path.toString());
+
+        // a profiled script is known to run, so build its engine's form now rather than on the first run
+        if (feedback != null && feedback.ran(source) && !script.hasErrors()) {
+            if (kind == Kind.FLAT) script.flat();
+            if (kind == Kind.VM) script.compiled();
+        }
+        return script;
+    }
+
+    // one file on its own, the modules it imports not yet loaded
+    LoxScript compileUnit(String source, Path directory) {
+        ErrorReporter reporter = new ErrorReporter();
+
+        List<Token> tokens = phase("scan", () -> new Scanner(source, reporter).scanTokens());
+        List<Stmt> statements = phase("parse", () -> new Parser(tokens, reporter).parse());
+        if (reporter.hadError()) return new LoxScript(source, kind, slots, statements, reporter.errors());
+
+        Resolver resolver = phase("resolve", () -> {
+            Resolver pass = new Resolver(reporter, slots);
+            pass.resolve(statements);
+            // lowering is timed with resolution, the pass it finishes
+            if (lowering && !reporter.hadError()) new Lowering().lower(statements);
+            return pass;
+        });
+
+        for (Stmt.Import stmt : resolver.imports) {
+            stmt.file = LoxModules.resolve(directory, stmt.path);
+        }
+        LoxScript script = new LoxScript(source, kind, slots, statements, reporter.errors(), resolver.imports, new HashMap<>());
+        // the other engines link their lowered code to the script instead
+        if (kind == Kind.TREE) {
+            for (Stmt.Function declaration : LoxSnapshot.declarations(script)) declaration.script = script;
+        }
+        return script;
+    }
+
+    /**
+     * Reads a snapshot saved by a context of an engine of the same kind,
+     * compiling the code it refers to. It can then be restored into any
+     * number of this engine's contexts.
+     */
+    public LoxSnapshot loadSnapshot(Path file) throws IOException {
+        return LoxSnapshot.load(this, file);
+    }
+
+    // timed for JFR and the metrics, when either is on
+    static <T> T phase(String name, Supplier<T> work) {
+        if (!LoxEvents.ENABLED && !LoxMetrics.ENABLED) return work.get();
+
+        LoxEvents.Phase event = LoxEvents.ENABLED ? LoxEvents.beginPhase(name) : null;
+        long start = System.nanoTime();
+        try {
+            return work.get();
+        } finally {
+            if (LoxMetrics.ENABLED) LoxMetrics.phase(name, System.nanoTime() - start);
+            if (event != null) LoxEvents.endPhase(event);
+        }
+    }
+
+    public LoxContext newContext(PrintStream out, PrintStream err) {
+        return newContext(out, err, LoxOutput.Flush.BLOCK);
+    }
+
+    public LoxContext newContext(PrintStream out, PrintStream err, LoxOutput.Flush flush) {
+        return newContext(out, err, flush, LoxLimits.NONE);
+    }
+
+    public LoxContext newContext(PrintStream out, PrintStream err, LoxOutput.Flush flush, LoxLimits limits) {
+        LoxOutput output = new LoxOutput(out, flush);
+        Interpreter interpreter;
+        switch (kind) {
+            case FLAT: interpreter = new FlatInterpreter(output, slots); break;
+            case VM: interpreter = new VmInterpreter(output, slots); break;
+            default: interpreter = new Interpreter(output, slots); break;
+        }
+        return new LoxContext(interpreter, err, limits);
+    }
+}
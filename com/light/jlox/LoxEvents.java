@@ -0,0 +1,133 @@
+package com.light.jlox;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Java Flight Recorder events for Lox calls, class and instance creation,
+ * runtime errors and the compile and run phases, shown under "Lox" next to
+ * the JVM's own events.
+ *
+ * Merely loading an event class costs a few hundred milliseconds, so nothing
+ * here is touched unless ENABLED: the JVM was started with a recording
+ * (-XX:StartFlightRecording) or -Djlox.jfr=true was given so that one can
+ * be started later with jcmd. Call sites test ENABLED first, which the JIT
+ * folds away otherwise.
+ */
+final class LoxEvents {
+    static final boolean ENABLED = Boolean.getBoolean("jlox.jfr") || FlightRecorder.isInitialized();
+
+    private LoxEvents() {}
+
+    @Name("jlox.Call")
+    @Label("Lox Call")
+    @Category("Lox")
+    @Description("A call of a Lox function, method, class or native")
+    @StackTrace(false)
+    @Threshold("1 ms")
+    static class Call extends Event {
+        @Label("Function")
+        String function;
+
+        @Label("Line")
+        int line;
+    }
+
+    @Name("jlox.ClassDefined")
+    @Label("Lox Class Defined")
+    @Category("Lox")
+    @StackTrace(false)
+    static class ClassDefined extends Event {
+        @Label("Class")
+        String className;
+
+        @Label("Superclass")
+        String superclass;
+    }
+
+    @Name("jlox.InstanceCreated")
+    @Label("Lox Instance Created")
+    @Category("Lox")
+    @StackTrace(false)
+    static class InstanceCreated extends Event {
+        @Label("Class")
+        String className;
+    }
+
+    @Name("jlox.RuntimeError")
+    @Label("Lox Runtime Error")
+    @Category("Lox")
+    @StackTrace(false)
+    static class Error extends Event {
+        @Label("Message")
+        String message;
+
+        @Label("Line")
+        int line;
+    }
+
+    @Name("jlox.Phase")
+    @Label("Lox Phase")
+    @Category("Lox")
+    @Description("Scanning, parsing, resolving or interpreting a script")
+    @StackTrace(false)
+    static class Phase extends Event {
+        @Label("Phase")
+        String phase;
+    }
+
+    static Call beginCall(int line) {
+        Call event = new Call();
+        event.line = line;
+        event.begin();
+        return event;
+    }
+
+    static void endCall(Call event, Object callee) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.function = LoxProfiler.name(callee);
+            event.commit();
+        }
+    }
+
+    static void classDefined(LoxClass klass) {
+        ClassDefined event = new ClassDefined();
+        if (!event.isEnabled()) return;
+        event.className = klass.name;
+        event.superclass = klass.superclass == null ? null : klass.superclass.name;
+        event.commit();
+    }
+
+    static void instanceCreated(LoxClass klass) {
+        InstanceCreated event = new InstanceCreated();
+        if (!event.isEnabled()) return;
+        event.className = klass.name;
+        event.commit();
+    }
+
+    static void runtimeError(RuntimeError error) {
+        Error event = new Error();
+        if (!event.isEnabled()) return;
+        event.message = error.getMessage();
+        event.line = error.token == null ? 0 : error.token.line;
+        event.commit();
+    }
+
+    static Phase beginPhase(String name) {
+        Phase event = new Phase();
+        event.phase = name;
+        event.begin();
+        return event;
+    }
+
+    static void endPhase(Phase event) {
+        event.commit();
+    }
+}
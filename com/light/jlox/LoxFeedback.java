@@ -0,0 +1,67 @@
+package com.light.jlox;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The scripts that ran before, kept from one run to the next: a script
+ * known to run has its engine's form built when it is compiled rather than
+ * on its first run, see LoxEngine.compile. That is all a profile does; no
+ * engine here specialises on what a run saw. A profile file holds any
+ * number of scripts, each under the hash of its source, so it only applies
+ * to the text it was recorded on. The hash is a cheap 64-bit one rather
+ * than a digest, which would cost a short run more than it saves; a
+ * collision can only build a form early.
+ *
+ * The file is plain text, one script per line:
+ *
+ *     script 9c1e47a0d3b2f815
+ */
+final class LoxFeedback {
+    private final Set<String> scripts;
+
+    private LoxFeedback(Set<String> scripts) {
+        this.scripts = scripts;
+    }
+
+    /** True if exactly this source was recorded. */
+    boolean ran(String source) {
+        return scripts.contains(hash(source));
+    }
+
+    // 64-bit FNV-1a over the characters
+    static String hash(String source) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < source.length(); i++) {
+            hash ^= source.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        String hex = Long.toHexString(hash);
+        return "0".repeat(16 - hex.length()) + hex;
+    }
+
+    static LoxFeedback read(Path file) throws IOException {
+        Set<String> scripts = new LinkedHashSet<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            String[] words = line.trim().split(" ");
+            if (words.length == 2 && words[0].equals("script")) scripts.add(words[1]);
+        }
+        return new LoxFeedback(scripts);
+    }
+
+    /** Records the source, keeping the other scripts already in the file. */
+    static void save(Path file, String source) throws IOException {
+        Set<String> scripts = Files.exists(file) ? read(file).scripts : new LinkedHashSet<>();
+        scripts.add(hash(source));
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            for (String script : scripts) {
+                writer.println("script " + script);
+            }
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.light.jlox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Concurrency natives: spawn, join, channel, send, receive and sleep.
+ *
+ * Each fiber runs its function on a forked interpreter, which has its own
+ * current environment (and VM stack) but shares globals and output with the
+ * interpreter that spawned it. Globals, captured variables, instance fields,
+ * lists, maps and the output sink synchronize (the context's data only once
+ * it has spawned, see Globals.concurrent), so sharing variables and objects
+ * between fibers is safe; anything more than single reads and writes needs a
+ * channel.
+ *
+ * A fiber's runtime error surfaces where it is joined. One that is never
+ * joined is reported on the context's error stream when the run ends.
+ *
+ * Fibers run on virtual threads when the JVM has them (21+), otherwise on a
+ * pool of daemon platform threads.
+ */
+final class LoxFibers {
+    private static final ExecutorService EXECUTOR = createExecutor();
+
+    private static final Object NIL = new Object();
+
+    private LoxFibers() {}
+
+    private static ExecutorService createExecutor() {
+        try {
+            return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "lox-fiber");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    static class Fiber {
+        final CompletableFuture<Object> result = new CompletableFuture<>();
+        // set before waiting, so a failure seen here is not reported again
+        volatile boolean joined = false;
+
+        @Override
+        public String toString() {
+            return "<fiber>";
+        }
+    }
+
+    static class Channel {
+        final LinkedBlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+
+        @Override
+        public String toString() {
+            return "<channel>";
+        }
+    }
+
+    static void define(Environment globals) {
+        globals.define("spawn", new LoxNative(1) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                if (!(arguments.get(0) instanceof LoxCallable) || ((LoxCallable)arguments.get(0)).arity() != 0) {
+                    throw new RuntimeError(null, "Can only spawn functions that take no arguments.");
+                }
+                LoxCallable function = (LoxCallable)arguments.get(0);
+                interpreter.globals.concurrent = true;
+                Interpreter fiberInterpreter = interpreter.fork();
+                Fiber fiber = new Fiber();
+                EXECUTOR.execute(() -> {
+                    try {
+                        fiber.result.complete(fiberInterpreter.callBack(function, new ArrayList<>()));
+                    } catch (Throwable e) {
+                        fiber.result.completeExceptionally(e);
+                        fiberInterpreter.failedFibers.add(fiber);
+                    } finally {
+                        fiberInterpreter.finish();
+                    }
+                });
+                return fiber;
+            }
+        });
+
+        globals.define("join", new LoxNative(1) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                if (!(arguments.get(0) instanceof Fiber)) {
+                    throw new RuntimeError(null, "Can only join fibers.");
+                }
+                Fiber fiber = (Fiber)arguments.get(0);
+                fiber.joined = true;
+                try {
+                    long remaining = remaining(interpreter);
+                    if (remaining == Long.MAX_VALUE) return fiber.result.get();
+                    return fiber.result.get(remaining, TimeUnit.NANOSECONDS);
+                } catch (TimeoutException e) {
+                    throw timeLimit();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeError(null, "Interrupted while joining.");
+                } catch (ExecutionException e) {
+                    // the fiber's error surfaces where it is joined
+                    if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+                    if (e.getCause() instanceof Error) throw (Error)e.getCause();
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        });
+
+        globals.define("channel", new LoxNative(0) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return new Channel();
+            }
+        });
+
+        globals.define("send", new LoxNative(2) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                Object value = arguments.get(1);
+                channel(arguments.get(0)).queue.add(value == null ? NIL : value);
+                return null;
+            }
+        });
+
+        globals.define("receive", new LoxNative(1) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                Channel channel = channel(arguments.get(0));
+                try {
+                    long remaining = remaining(interpreter);
+                    Object value;
+                    if (remaining == Long.MAX_VALUE) {
+                        value = channel.queue.take();
+                    } else {
+                        value = channel.queue.poll(remaining, TimeUnit.NANOSECONDS);
+                        if (value == null) throw timeLimit();
+                    }
+                    return value == NIL ? null : value;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeError(null, "Interrupted while receiving.");
+                }
+            }
+        });
+
+        globals.define("sleep", new LoxNative(1) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                if (!(arguments.get(0) instanceof Double)) {
+                    throw new RuntimeError(null, "Sleep time must be a number of seconds.");
+                }
+                long nanos = (long)((double)arguments.get(0) * 1e9);
+                long remaining = remaining(interpreter);
+                try {
+                    TimeUnit.NANOSECONDS.sleep(Math.min(nanos, remaining));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeError(null, "Interrupted while sleeping.");
+                }
+                if (nanos > remaining) throw timeLimit();
+                return null;
+            }
+        });
+    }
+
+    // how long a blocking native may wait, see LoxBudget.remaining
+    private static long remaining(Interpreter interpreter) {
+        return interpreter.budget == null ? Long.MAX_VALUE : interpreter.budget.remaining();
+    }
+
+    private static RuntimeError timeLimit() {
+        return new RuntimeError(null, "Time limit exceeded.");
+    }
+
+    private static Channel channel(Object value) {
+        if (!(value instanceof Channel)) {
+            throw new RuntimeError(null, "Expected a channel.");
+        }
+        return (Channel)value;
+    }
+}
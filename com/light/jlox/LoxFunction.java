@@ -2,16 +2,17 @@ package com.light.jlox;
 
 import java.util.List;
 
-class LoxFunction implements LoxCallable {
+class LoxFunction implements LoxMethod {
 
-    private final Stmt.Function declaration;
-    private final Environment closure;
+    final Stmt.Function declaration;
+    // exactly the variables the body captures, see Resolver.Capture
+    final Cell[] upvalues;
 
-    private final boolean isInitializer;
+    final boolean isInitializer;
 
-    LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer) {
+    LoxFunction(Stmt.Function declaration, Cell[] upvalues, boolean isInitializer) {
         this.isInitializer = isInitializer;
-        this.closure = closure;
+        this.upvalues = upvalues;
         this.declaration = declaration;
     }
 
@@ -22,19 +23,23 @@ class LoxFunction implements LoxCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
+        Environment environment = new Environment();
         for (int i = 0; i < declaration.params.size() ; i++) {
             environment.define(declaration.params.get(i).lexeme, arguments.get(i));
         }
-        
+
+        Cell[] previous = interpreter.upvalues;
+        interpreter.upvalues = upvalues;
         try {
             interpreter.executeBlock(declaration.body, environment);
         } catch(Return returnValue) {
-            if (isInitializer) return closure.getAt(0, "this");
+            if (isInitializer) return upvalues[0].get();
             return returnValue.value;
+        } finally {
+            interpreter.upvalues = previous;
         }
 
-        if (isInitializer) return closure.getAt(0, "this");
+        if (isInitializer) return upvalues[0].get();
         return null;
     }
 
@@ -43,10 +48,13 @@ class LoxFunction implements LoxCallable {
         return "<fn " + declaration.name.lexeme + ">";
     }
 
+    // a method's first capture is always 'this'
+    @Override
     public LoxFunction bind(LoxInstance loxInstance) {
-        Environment environment = new Environment(closure);
-        environment.define("this", loxInstance);
-        return new LoxFunction(declaration, environment, isInitializer);
+        if (LoxMetrics.ENABLED) LoxMetrics.BINDS.increment();
+        Cell[] bound = upvalues.clone();
+        bound[0] = new Cell(loxInstance);
+        return new LoxFunction(declaration, bound, isInitializer);
     }
     
 }
@@ -1,31 +1,151 @@
 package com.light.jlox;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * An object. Most have a handful of fields, so they are kept in two small
+ * parallel arrays, names and values, searched in order; a HashMap with its
+ * table and an entry per field costs several times as much. Past
+ * MAX_INLINE_FIELDS the same two arrays become an open-addressed table,
+ * hashed by name and at most three quarters full, so lookups no longer grow
+ * with the count and a wide instance still costs less than a HashMap.
+ */
 class LoxInstance {
-    private LoxClass klass;
+    private static final int MAX_INLINE_FIELDS = 8;
+    // the first table holds up to 24 fields
+    private static final int HASHED_CAPACITY = 32;
+    private static final String[] NO_NAMES = new String[0];
+    private static final Object[] NO_VALUES = new Object[0];
 
-    private final Map<String, Object> fields = new HashMap<>();
+    final LoxClass klass;
+
+    // in order up to MAX_INLINE_FIELDS, hashed once longer than that
+    private String[] names = NO_NAMES;
+    private Object[] values = NO_VALUES;
+    private int size = 0;
 
     LoxInstance(LoxClass klass) {
         this.klass = klass;
     }
 
+    // fibers can share instances, see Globals.concurrent
     Object get(Token name) {
-        if (fields.containsKey(name.lexeme)) {
-            return fields.get(name.lexeme);
+        if (!klass.globals.concurrent) return lookup(name);
+        synchronized (this) {
+            return lookup(name);
         }
+    }
+
+    private Object lookup(Token name) {
+        int index = indexOf(name.lexeme);
+        if (index != -1) return values[index];
 
         // checking methods later implies fields shadow methods - should methods shadow fields instaed?
-        LoxFunction method = klass.findMethod(name.lexeme);
+        if (LoxMetrics.ENABLED) LoxMetrics.METHOD_LOOKUPS.increment();
+        LoxMethod method = klass.findMethod(name.lexeme);
         if (method != null) return method.bind(this);
 
         throw new RuntimeError(name, "Unknown property '" + name.lexeme + "'.");
     }
 
+    private boolean isHashed() {
+        return names.length > MAX_INLINE_FIELDS;
+    }
+
+    private int indexOf(String name) {
+        if (isHashed()) {
+            int slot = slotOf(names, name);
+            return names[slot] == null ? -1 : slot;
+        }
+        for (int i = 0; i < size; i++) {
+            if (names[i].equals(name)) return i;
+        }
+        return -1;
+    }
+
+    // where the name is in the table, or the free slot it would go in
+    private static int slotOf(String[] table, String name) {
+        int mask = table.length - 1;
+        int hash = name.hashCode();
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (table[slot] != null && !table[slot].equals(name)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
     void set(Token name, Object value) {
-        fields.put(name.lexeme, value);
+        if (!klass.globals.concurrent) {
+            store(name.lexeme, value);
+            return;
+        }
+        synchronized (this) {
+            store(name.lexeme, value);
+        }
+    }
+
+    private void store(String name, Object value) {
+        if (isHashed()) {
+            int slot = slotOf(names, name);
+            if (names[slot] == null) {
+                if ((size + 1) * 4 > names.length * 3) {
+                    rehash(names.length * 2);
+                    slot = slotOf(names, name);
+                }
+                names[slot] = name;
+                size++;
+            }
+            values[slot] = value;
+            return;
+        }
+        int index = indexOf(name);
+        if (index != -1) {
+            values[index] = value;
+            return;
+        }
+        if (size == MAX_INLINE_FIELDS) {
+            rehash(HASHED_CAPACITY);
+            store(name, value);
+            return;
+        }
+        if (size == names.length) {
+            int capacity = Math.max(2, size * 2);
+            names = Arrays.copyOf(names, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        names[size] = name;
+        values[size] = value;
+        size++;
+    }
+
+    // moves every field into a fresh table; the old arrays are dropped
+    private void rehash(int capacity) {
+        String[] oldNames = names;
+        Object[] oldValues = values;
+        names = new String[capacity];
+        values = new Object[capacity];
+        for (int i = 0; i < oldNames.length; i++) {
+            if (oldNames[i] == null) continue;
+            int slot = slotOf(names, oldNames[i]);
+            names[slot] = oldNames[i];
+            values[slot] = oldValues[i];
+        }
+    }
+
+    /** A copy of the fields, for a snapshot. */
+    synchronized Map<String, Object> fields() {
+        Map<String, Object> copy = new HashMap<>();
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] != null) copy.put(names[i], values[i]);
+        }
+        return copy;
+    }
+
+    /** Sets a field by name, for a snapshot being restored. */
+    synchronized void define(String name, Object value) {
+        store(name, value);
     }
 
     @Override
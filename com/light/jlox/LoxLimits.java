@@ -0,0 +1,52 @@
+package com.light.jlox;
+
+import java.time.Duration;
+
+/**
+ * Resource limits for running untrusted scripts in a LoxContext. Steps are
+ * counted at every loop iteration and call, the deadline is checked every
+ * few thousand steps and bounds how long sleep, receive and join block,
+ * the depth of a fiber or parallel call starts from its caller's, and
+ * allocations count one per instance, list, map or list append plus the
+ * length of the shorter operand of each string concatenation (the longer
+ * one is shared, not copied). Exceeding any limit stops the run with a
+ * runtime error.
+ *
+ * Limits are immutable; each with* method returns a copy.
+ */
+public final class LoxLimits {
+    public static final LoxLimits NONE = new LoxLimits(Long.MAX_VALUE, 0, Integer.MAX_VALUE, Long.MAX_VALUE);
+
+    final long maxSteps;
+    final long timeoutNanos;
+    final int maxDepth;
+    final long maxAllocations;
+
+    private LoxLimits(long maxSteps, long timeoutNanos, int maxDepth, long maxAllocations) {
+        this.maxSteps = maxSteps;
+        this.timeoutNanos = timeoutNanos;
+        this.maxDepth = maxDepth;
+        this.maxAllocations = maxAllocations;
+    }
+
+    public LoxLimits withMaxSteps(long steps) {
+        return new LoxLimits(steps, timeoutNanos, maxDepth, maxAllocations);
+    }
+
+    public LoxLimits withTimeout(Duration timeout) {
+        return new LoxLimits(maxSteps, timeout.toNanos(), maxDepth, maxAllocations);
+    }
+
+    public LoxLimits withMaxDepth(int depth) {
+        return new LoxLimits(maxSteps, timeoutNanos, depth, maxAllocations);
+    }
+
+    public LoxLimits withMaxAllocations(long allocations) {
+        return new LoxLimits(maxSteps, timeoutNanos, maxDepth, allocations);
+    }
+
+    boolean isUnlimited() {
+        return maxSteps == Long.MAX_VALUE && timeoutNanos == 0
+            && maxDepth == Integer.MAX_VALUE && maxAllocations == Long.MAX_VALUE;
+    }
+}
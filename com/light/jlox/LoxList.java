@@ -0,0 +1,134 @@
+package com.light.jlox;
+
+import java.util.Arrays;
+
+/**
+ * Growable list value. While every element is a number they are kept
+ * unboxed in a double[]; the first store of anything else moves the list
+ * to an Object[] for good.
+ */
+final class LoxList {
+    private static final double[] NO_NUMBERS = new double[0];
+
+    private double[] numbers;
+    private Object[] objects;
+    private int size;
+    // of the context that made the list, whose fibers share it
+    private final Globals globals;
+
+    LoxList(Globals globals) {
+        this(globals, 8);
+    }
+
+    LoxList(Globals globals, int capacity) {
+        this.globals = globals;
+        this.numbers = capacity == 0 ? NO_NUMBERS : new double[capacity];
+    }
+
+    // fibers can share lists, see Globals.concurrent
+    int size() {
+        if (!globals.concurrent) return size;
+        synchronized (this) {
+            return size;
+        }
+    }
+
+    /** True while the elements are stored unboxed, so getNumber can be used. */
+    boolean isNumeric() {
+        return objects == null;
+    }
+
+    double getNumber(int index) {
+        return numbers[index];
+    }
+
+    Object get(int index) {
+        if (!globals.concurrent) return element(index);
+        synchronized (this) {
+            return element(index);
+        }
+    }
+
+    private Object element(int index) {
+        if (objects != null) return objects[index];
+        return LoxValues.number(numbers[index]);
+    }
+
+    void setNumber(int index, double value) {
+        if (!globals.concurrent) {
+            storeNumber(index, value);
+            return;
+        }
+        synchronized (this) {
+            storeNumber(index, value);
+        }
+    }
+
+    private void storeNumber(int index, double value) {
+        if (objects == null) {
+            numbers[index] = value;
+        } else {
+            objects[index] = LoxValues.number(value);
+        }
+    }
+
+    void set(int index, Object value) {
+        if (!globals.concurrent) {
+            store(index, value);
+            return;
+        }
+        synchronized (this) {
+            store(index, value);
+        }
+    }
+
+    private void store(int index, Object value) {
+        if (objects == null) {
+            if (value instanceof Double) {
+                numbers[index] = (double)value;
+                return;
+            }
+            generalize();
+        }
+        objects[index] = value;
+    }
+
+    void add(Object value) {
+        if (!globals.concurrent) {
+            append(value);
+            return;
+        }
+        synchronized (this) {
+            append(value);
+        }
+    }
+
+    private void append(Object value) {
+        if (objects == null && !(value instanceof Double)) generalize();
+        if (objects == null) {
+            if (size == numbers.length) numbers = Arrays.copyOf(numbers, Math.max(8, size * 2));
+            numbers[size++] = (double)value;
+        } else {
+            if (size == objects.length) objects = Arrays.copyOf(objects, Math.max(8, size * 2));
+            objects[size++] = value;
+        }
+    }
+
+    private void generalize() {
+        objects = new Object[Math.max(8, numbers.length)];
+        for (int i = 0; i < size; i++) {
+            objects[i] = LoxValues.number(numbers[i]);
+        }
+        numbers = null;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) builder.append(", ");
+            Interpreter.stringify(builder, element(i));
+        }
+        return builder.append(']').toString();
+    }
+}
@@ -0,0 +1,272 @@
+package com.light.jlox;
+
+/**
+ * Hash map value keyed by strings or numbers. Each key kind has its own
+ * open-addressing table with linear probing, so lookups compare Strings or
+ * raw double bits directly and never box or allocate. Removal shifts the
+ * following entries back instead of leaving tombstones.
+ */
+final class LoxMap {
+    private static final int INITIAL_CAPACITY = 8;
+
+    private String[] stringKeys = new String[INITIAL_CAPACITY];
+    private Object[] stringValues = new Object[INITIAL_CAPACITY];
+    private int stringCount;
+
+    private long[] numberKeys = new long[INITIAL_CAPACITY];
+    private boolean[] numberUsed = new boolean[INITIAL_CAPACITY];
+    private Object[] numberValues = new Object[INITIAL_CAPACITY];
+    private int numberCount;
+
+    // of the context that made the map, whose fibers share it
+    private final Globals globals;
+
+    LoxMap(Globals globals) {
+        this.globals = globals;
+    }
+
+    static boolean isKey(Object key) {
+        return key instanceof Double || Interpreter.isString(key);
+    }
+
+    // fibers can share maps, see Globals.concurrent
+    int size() {
+        if (!globals.concurrent) return stringCount + numberCount;
+        synchronized (this) {
+            return stringCount + numberCount;
+        }
+    }
+
+    /** The value for key, or null when it is absent. */
+    Object get(Object key) {
+        if (key instanceof Double) return get((double)key);
+        return get(key.toString());
+    }
+
+    Object get(String key) {
+        if (!globals.concurrent) return stringLookup(key);
+        synchronized (this) {
+            return stringLookup(key);
+        }
+    }
+
+    Object get(double key) {
+        if (!globals.concurrent) return numberLookup(key);
+        synchronized (this) {
+            return numberLookup(key);
+        }
+    }
+
+    boolean has(Object key) {
+        if (!globals.concurrent) return contains(key);
+        synchronized (this) {
+            return contains(key);
+        }
+    }
+
+    private boolean contains(Object key) {
+        if (key instanceof Double) {
+            return numberUsed[numberSlot(bits((double)key))];
+        }
+        return stringKeys[stringSlot(key.toString())] != null;
+    }
+
+    void put(Object key, Object value) {
+        if (!globals.concurrent) {
+            store(key, value);
+            return;
+        }
+        synchronized (this) {
+            store(key, value);
+        }
+    }
+
+    private void store(Object key, Object value) {
+        if (key instanceof Double) {
+            numberStore(bits((double)key), value);
+        } else {
+            stringStore(key.toString(), value);
+        }
+    }
+
+    /** Removes key and returns its value, or null when it was absent. */
+    Object remove(Object key) {
+        if (!globals.concurrent) return delete(key);
+        synchronized (this) {
+            return delete(key);
+        }
+    }
+
+    private Object delete(Object key) {
+        if (key instanceof Double) return numberDelete(bits((double)key));
+        return stringDelete(key.toString());
+    }
+
+    /** All keys, strings first, each kind in table order. */
+    synchronized LoxList keys() {
+        LoxList keys = new LoxList(globals, stringCount + numberCount);
+        for (String key : stringKeys) {
+            if (key != null) keys.add(key);
+        }
+        for (int i = 0; i < numberKeys.length; i++) {
+            if (numberUsed[i]) keys.add(LoxValues.number(Double.longBitsToDouble(numberKeys[i])));
+        }
+        return keys;
+    }
+
+    // same notion of equality as Double.equals, which isEqual uses
+    private static long bits(double key) {
+        return Double.doubleToLongBits(key);
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private int stringSlot(String key) {
+        int mask = stringKeys.length - 1;
+        int slot = mix(key.hashCode()) & mask;
+        while (stringKeys[slot] != null && !stringKeys[slot].equals(key)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private Object stringLookup(String key) {
+        return stringValues[stringSlot(key)];
+    }
+
+    private void stringStore(String key, Object value) {
+        int slot = stringSlot(key);
+        if (stringKeys[slot] == null) {
+            if ((stringCount + 1) * 2 > stringKeys.length) {
+                growStrings();
+                slot = stringSlot(key);
+            }
+            stringKeys[slot] = key;
+            stringCount++;
+        }
+        stringValues[slot] = value;
+    }
+
+    private void growStrings() {
+        String[] keys = stringKeys;
+        Object[] values = stringValues;
+        stringKeys = new String[keys.length * 2];
+        stringValues = new Object[keys.length * 2];
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == null) continue;
+            int slot = stringSlot(keys[i]);
+            stringKeys[slot] = keys[i];
+            stringValues[slot] = values[i];
+        }
+    }
+
+    private Object stringDelete(String key) {
+        int slot = stringSlot(key);
+        if (stringKeys[slot] == null) return null;
+        Object value = stringValues[slot];
+        stringKeys[slot] = null;
+        stringValues[slot] = null;
+        stringCount--;
+
+        int mask = stringKeys.length - 1;
+        for (int next = (slot + 1) & mask; stringKeys[next] != null; next = (next + 1) & mask) {
+            String moved = stringKeys[next];
+            Object movedValue = stringValues[next];
+            stringKeys[next] = null;
+            stringValues[next] = null;
+            int target = stringSlot(moved);
+            stringKeys[target] = moved;
+            stringValues[target] = movedValue;
+        }
+        return value;
+    }
+
+    private int numberSlot(long key) {
+        int mask = numberKeys.length - 1;
+        int slot = mix(Long.hashCode(key)) & mask;
+        while (numberUsed[slot] && numberKeys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private Object numberLookup(double key) {
+        return numberValues[numberSlot(bits(key))];
+    }
+
+    private void numberStore(long key, Object value) {
+        int slot = numberSlot(key);
+        if (!numberUsed[slot]) {
+            if ((numberCount + 1) * 2 > numberKeys.length) {
+                growNumbers();
+                slot = numberSlot(key);
+            }
+            numberKeys[slot] = key;
+            numberUsed[slot] = true;
+            numberCount++;
+        }
+        numberValues[slot] = value;
+    }
+
+    private void growNumbers() {
+        long[] keys = numberKeys;
+        boolean[] used = numberUsed;
+        Object[] values = numberValues;
+        numberKeys = new long[keys.length * 2];
+        numberUsed = new boolean[keys.length * 2];
+        numberValues = new Object[keys.length * 2];
+        for (int i = 0; i < keys.length; i++) {
+            if (!used[i]) continue;
+            int slot = numberSlot(keys[i]);
+            numberKeys[slot] = keys[i];
+            numberUsed[slot] = true;
+            numberValues[slot] = values[i];
+        }
+    }
+
+    private Object numberDelete(long key) {
+        int slot = numberSlot(key);
+        if (!numberUsed[slot]) return null;
+        Object value = numberValues[slot];
+        numberUsed[slot] = false;
+        numberValues[slot] = null;
+        numberCount--;
+
+        int mask = numberKeys.length - 1;
+        for (int next = (slot + 1) & mask; numberUsed[next]; next = (next + 1) & mask) {
+            long moved = numberKeys[next];
+            Object movedValue = numberValues[next];
+            numberUsed[next] = false;
+            numberValues[next] = null;
+            int target = numberSlot(moved);
+            numberKeys[target] = moved;
+            numberUsed[target] = true;
+            numberValues[target] = movedValue;
+        }
+        return value;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        boolean first = true;
+        for (int i = 0; i < stringKeys.length; i++) {
+            if (stringKeys[i] == null) continue;
+            if (!first) builder.append(", ");
+            first = false;
+            builder.append(stringKeys[i]).append(": ");
+            Interpreter.stringify(builder, stringValues[i]);
+        }
+        for (int i = 0; i < numberKeys.length; i++) {
+            if (!numberUsed[i]) continue;
+            if (!first) builder.append(", ");
+            first = false;
+            Interpreter.stringify(builder, LoxValues.number(Double.longBitsToDouble(numberKeys[i])));
+            builder.append(": ");
+            Interpreter.stringify(builder, numberValues[i]);
+        }
+        return builder.append('}').toString();
+    }
+}
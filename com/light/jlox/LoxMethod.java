@@ -0,0 +1,5 @@
+package com.light.jlox;
+
+interface LoxMethod extends LoxCallable {
+    LoxMethod bind(LoxInstance instance);
+}
@@ -0,0 +1,122 @@
+package com.light.jlox;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters behind LoxMetricsMXBean. They are only kept with
+ * -Djlox.metrics=true: every counting site tests ENABLED first, which the
+ * JIT folds away otherwise. LongAdders keep contexts running on different
+ * threads from contending on the same counter.
+ */
+final class LoxMetrics implements LoxMetricsMXBean {
+    static final boolean ENABLED = Boolean.getBoolean("jlox.metrics");
+
+    static final LongAdder ENVIRONMENTS = new LongAdder();
+    static final LongAdder CALLS = new LongAdder();
+    static final LongAdder BINDS = new LongAdder();
+    static final LongAdder INSTANCES = new LongAdder();
+    static final LongAdder METHOD_LOOKUPS = new LongAdder();
+    static final LongAdder CONTROL_FLOW = new LongAdder();
+
+    private static final LongAdder COMPILES = new LongAdder();
+    private static final LongAdder SCAN_NANOS = new LongAdder();
+    private static final LongAdder PARSE_NANOS = new LongAdder();
+    private static final LongAdder RESOLVE_NANOS = new LongAdder();
+    private static final LongAdder RUNS = new LongAdder();
+    private static final LongAdder INTERPRET_NANOS = new LongAdder();
+
+    static {
+        if (ENABLED) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    new LoxMetrics(), new ObjectName("com.light.jlox:type=Metrics"));
+            } catch (JMException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+    }
+
+    private LoxMetrics() {}
+
+    static void phase(String phase, long nanos) {
+        switch (phase) {
+            case "scan": COMPILES.increment(); SCAN_NANOS.add(nanos); break;
+            case "parse": PARSE_NANOS.add(nanos); break;
+            case "resolve": RESOLVE_NANOS.add(nanos); break;
+            case "interpret": RUNS.increment(); INTERPRET_NANOS.add(nanos); break;
+            default: throw new IllegalArgumentException(phase);
+        }
+    }
+
+    @Override
+    public long getEnvironmentsAllocated() {
+        return ENVIRONMENTS.sum();
+    }
+
+    @Override
+    public long getFunctionCalls() {
+        return CALLS.sum();
+    }
+
+    @Override
+    public long getMethodBinds() {
+        return BINDS.sum();
+    }
+
+    @Override
+    public long getInstancesCreated() {
+        return INSTANCES.sum();
+    }
+
+    @Override
+    public long getMethodLookups() {
+        return METHOD_LOOKUPS.sum();
+    }
+
+    @Override
+    public long getControlFlowExceptions() {
+        return CONTROL_FLOW.sum();
+    }
+
+    @Override
+    public long getScriptsCompiled() {
+        return COMPILES.sum();
+    }
+
+    @Override
+    public long getScanNanos() {
+        return SCAN_NANOS.sum();
+    }
+
+    @Override
+    public long getParseNanos() {
+        return PARSE_NANOS.sum();
+    }
+
+    @Override
+    public long getResolveNanos() {
+        return RESOLVE_NANOS.sum();
+    }
+
+    @Override
+    public long getScriptsRun() {
+        return RUNS.sum();
+    }
+
+    @Override
+    public long getInterpretNanos() {
+        return INTERPRET_NANOS.sum();
+    }
+
+    @Override
+    public void reset() {
+        for (LongAdder adder : new LongAdder[] {
+                ENVIRONMENTS, CALLS, BINDS, INSTANCES, METHOD_LOOKUPS, CONTROL_FLOW,
+                COMPILES, SCAN_NANOS, PARSE_NANOS, RESOLVE_NANOS, RUNS, INTERPRET_NANOS}) {
+            adder.reset();
+        }
+    }
+}
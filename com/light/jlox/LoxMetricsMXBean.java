@@ -0,0 +1,36 @@
+package com.light.jlox;
+
+/**
+ * Live interpreter statistics, registered as com.light.jlox:type=Metrics
+ * when the JVM runs with -Djlox.metrics=true. Counts are totals over every
+ * context in the JVM since start or the last reset.
+ */
+public interface LoxMetricsMXBean {
+    long getEnvironmentsAllocated();
+
+    long getFunctionCalls();
+
+    long getMethodBinds();
+
+    long getInstancesCreated();
+
+    /** Property reads that found no field and fell through to the class's methods. */
+    long getMethodLookups();
+
+    /** Return and break exceptions thrown by the tree and flat engines. */
+    long getControlFlowExceptions();
+
+    long getScriptsCompiled();
+
+    long getScanNanos();
+
+    long getParseNanos();
+
+    long getResolveNanos();
+
+    long getScriptsRun();
+
+    long getInterpretNanos();
+
+    void reset();
+}
@@ -0,0 +1,142 @@
+package com.light.jlox;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+
+/**
+ * The modules an engine has loaded, by absolute path. Each file is scanned,
+ * parsed and resolved once however many scripts import it, from however
+ * many threads, and the LoxScript it becomes is shared by all of them. A
+ * file modified since it was loaded is compiled again when a script that
+ * imports it is next compiled, so a large program only pays for the files
+ * that changed.
+ *
+ * Linking walks a script's imports depth first. All the imports of one file
+ * are started on the common pool before the first is waited for, so
+ * independent modules compile in parallel, and the chain of files being
+ * walked is kept to report import cycles.
+ */
+final class LoxModules {
+
+    private static final class Entry {
+        final long modified;
+        final CompletableFuture<LoxScript> script;
+
+        Entry(long modified, CompletableFuture<LoxScript> script) {
+            this.modified = modified;
+            this.script = script;
+        }
+    }
+
+    private final Map<String, Entry> loaded = new ConcurrentHashMap<>();
+    // compiles one file's source, resolving its imports against the directory
+    private final BiFunction<String, Path, LoxScript> compiler;
+
+    LoxModules(BiFunction<String, Path, LoxScript> compiler) {
+        this.compiler = compiler;
+    }
+
+    /** The absolute path an import names, relative to the importing file's directory. */
+    static String resolve(Path directory, Token path) {
+        return directory.resolve((String)path.literal).toAbsolutePath().normalize().toString();
+    }
+
+    /** A module's path as errors and tracebacks show it: relative to the working directory when inside it. */
+    static String display(String file) {
+        Path path = Path.of(file);
+        Path here = Path.of("").toAbsolutePath();
+        return path.startsWith(here) ? here.relativize(path).toString() : file;
+    }
+
+    /** The script with every module it imports, directly or not, or with the errors found loading them. */
+    LoxScript link(LoxScript script, String file) {
+        List<String> errors = new ArrayList<>(script.errors());
+        Map<String, LoxScript> modules = new LinkedHashMap<>();
+        List<String> chain = new ArrayList<>();
+        if (file != null) chain.add(file);
+        link(script, null, chain, modules, errors);
+        return script.link(modules, errors);
+    }
+
+    // importer is the script's file when it is a module, null for the script being linked
+    private void link(LoxScript script, String importer, List<String> chain,
+                      Map<String, LoxScript> modules, List<String> errors) {
+        List<CompletableFuture<LoxScript>> loads = new ArrayList<>();
+        for (Stmt.Import stmt : script.imports) {
+            boolean known = modules.containsKey(stmt.file) || chain.contains(stmt.file);
+            loads.add(known ? null : load(stmt.file));
+        }
+
+        for (int i = 0; i < script.imports.size(); i++) {
+            Stmt.Import stmt = script.imports.get(i);
+            if (chain.contains(stmt.file)) {
+                List<String> cycle = new ArrayList<>(chain.subList(chain.indexOf(stmt.file), chain.size()));
+                cycle.add(stmt.file);
+                cycle.replaceAll(LoxModules::display);
+                errors.add(error(importer, stmt, "Import cycle: " + String.join(" -> ", cycle) + "."));
+                continue;
+            }
+            // imported earlier in the walk, or twice by this file
+            if (modules.containsKey(stmt.file)) continue;
+
+            LoxScript module;
+            try {
+                module = (loads.get(i) != null ? loads.get(i) : load(stmt.file)).join();
+            } catch (CompletionException e) {
+                errors.add(error(importer, stmt, "Can't read module."));
+                continue;
+            }
+            for (String error : module.errors()) {
+                errors.add(display(stmt.file) + ": " + error);
+            }
+            chain.add(stmt.file);
+            link(module, stmt.file, chain, modules, errors);
+            chain.remove(chain.size() - 1);
+            modules.put(stmt.file, module);
+        }
+    }
+
+    private CompletableFuture<LoxScript> load(String file) {
+        Path path = Path.of(file);
+        long modified = modified(path);
+        return loaded.compute(file, (key, entry) -> {
+            if (entry != null && entry.modified == modified) return entry;
+            return new Entry(modified, CompletableFuture.supplyAsync(() -> compile(path)));
+        }).script;
+    }
+
+    private LoxScript compile(Path path) {
+        try {
+            String source = new String(Files.readAllBytes(path), Charset.defaultCharset());
+            return compiler.apply(source, path.getParent());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // a missing file reads as never modified, so creating it is noticed too
+    private static long modified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    // worded like the ErrorReporter's, and like a module's own errors, prefixed with the module
+    private static String error(String importer, Stmt.Import stmt, String message) {
+        String error = "[line " + stmt.path.line + "] Error at '" + stmt.path.lexeme + "': " + message;
+        return importer == null ? error : display(importer) + ": " + error;
+    }
+}
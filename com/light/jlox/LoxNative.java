@@ -0,0 +1,20 @@
+package com.light.jlox;
+
+/** Base for native functions defined in the globals. */
+abstract class LoxNative implements LoxCallable {
+    private final int arity;
+
+    LoxNative(int arity) {
+        this.arity = arity;
+    }
+
+    @Override
+    public int arity() {
+        return arity;
+    }
+
+    @Override
+    public String toString() {
+        return "<native fn>";
+    }
+}
@@ -0,0 +1,40 @@
+package com.light.jlox;
+
+import java.io.PrintStream;
+
+/**
+ * Buffered sink for `print`. Values are formatted straight into the buffer,
+ * which is written out at each line (LINE) or once it fills up (BLOCK).
+ * Callers flush explicitly before exiting, reporting errors and prompting.
+ */
+public final class LoxOutput {
+    public enum Flush {
+        LINE,
+        BLOCK
+    }
+
+    private static final int BLOCK_SIZE = 8192;
+
+    private final PrintStream out;
+    private final Flush mode;
+    private final StringBuilder buffer = new StringBuilder(BLOCK_SIZE);
+
+    LoxOutput(PrintStream out, Flush mode) {
+        this.out = out;
+        this.mode = mode;
+    }
+
+    synchronized void println(Object value) {
+        Interpreter.stringify(buffer, value);
+        buffer.append('\n');
+        if (mode == Flush.LINE || buffer.length() >= BLOCK_SIZE) flush();
+    }
+
+    synchronized void flush() {
+        if (buffer.length() > 0) {
+            out.append(buffer);
+            buffer.setLength(0);
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,216 @@
+package com.light.jlox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Data-parallel natives: parallelFor, parallelMap and parallelReduce.
+ *
+ * The index range is split over the common fork/join pool. Each leaf calls
+ * the function on its own forked interpreter, so the calls share globals and
+ * output like fibers do but never each other's current environment.
+ * parallelReduce combines partial results in an unspecified grouping, so its
+ * function has to be associative. The list is reduced on its own and init
+ * is combined with the total once, as fn(init, total), so init need not be
+ * an identity: for an associative fn the result is the sequential fold
+ * fn(...fn(fn(init, x0), x1)..., xn). An empty list gives init.
+ */
+final class LoxParallel {
+
+    private LoxParallel() {}
+
+    static void define(Environment globals) {
+        globals.define("parallelFor", new LoxNative(2) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                if (!(arguments.get(0) instanceof Double)) {
+                    throw new RuntimeError(null, "Iteration count must be a number.");
+                }
+                int count = (int)(double)arguments.get(0);
+                LoxCallable function = function(arguments.get(1), 1);
+                run(interpreter, new ForAction(interpreter, function, 0, count, threshold(count)));
+                return null;
+            }
+        });
+
+        globals.define("parallelMap", new LoxNative(2) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                LoxList list = LoxCollections.list(arguments.get(0));
+                LoxCallable function = function(arguments.get(1), 1);
+                Object[] results = new Object[list.size()];
+                run(interpreter, new MapAction(interpreter, function, list, results, 0, results.length, threshold(results.length)));
+                if (interpreter.budget != null) interpreter.budget.allocate(null, 1 + results.length);
+                LoxList mapped = new LoxList(interpreter.globals, results.length);
+                for (Object result : results) mapped.add(result);
+                return mapped;
+            }
+        });
+
+        globals.define("parallelReduce", new LoxNative(3) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                LoxList list = LoxCollections.list(arguments.get(0));
+                LoxCallable function = function(arguments.get(2), 2);
+                if (list.size() == 0) return arguments.get(1);
+                Object total = run(interpreter, new ReduceTask(interpreter, function, list, 0, list.size(), threshold(list.size())));
+                return apply(interpreter, function, arguments.get(1), total);
+            }
+        });
+    }
+
+    private static LoxCallable function(Object value, int arity) {
+        if (!(value instanceof LoxCallable) || ((LoxCallable)value).arity() != arity) {
+            throw new RuntimeError(null, "Expected a function that takes " + arity
+                + (arity == 1 ? " argument." : " arguments."));
+        }
+        return (LoxCallable)value;
+    }
+
+    // a few chunks per worker so that stealing can even out uneven calls
+    private static int threshold(int count) {
+        return Math.max(1, count / (ForkJoinPool.getCommonPoolParallelism() * 4));
+    }
+
+    private static <T> T run(Interpreter interpreter, ForkJoinTask<T> task) {
+        interpreter.globals.concurrent = true;
+        // invoke rethrows a worker's RuntimeError as is
+        return ForkJoinPool.commonPool().invoke(task);
+    }
+
+    private static Object apply(Interpreter interpreter, LoxCallable function, Object left, Object right) {
+        List<Object> arguments = new ArrayList<>(2);
+        arguments.add(left);
+        arguments.add(right);
+        return interpreter.callBack(function, arguments);
+    }
+
+    private static class ForAction extends RecursiveAction {
+        private final Interpreter interpreter;
+        private final LoxCallable function;
+        private final int from;
+        private final int to;
+        private final int threshold;
+
+        ForAction(Interpreter interpreter, LoxCallable function, int from, int to, int threshold) {
+            this.interpreter = interpreter;
+            this.function = function;
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > threshold) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ForAction(interpreter, function, from, middle, threshold),
+                    new ForAction(interpreter, function, middle, to, threshold));
+                return;
+            }
+            Interpreter worker = interpreter.fork();
+            try {
+                List<Object> arguments = new ArrayList<>(1);
+                arguments.add(null);
+                for (int i = from; i < to; i++) {
+                    arguments.set(0, LoxValues.number(i));
+                    worker.callBack(function, arguments);
+                }
+            } finally {
+                worker.finish();
+            }
+        }
+    }
+
+    private static class MapAction extends RecursiveAction {
+        private final Interpreter interpreter;
+        private final LoxCallable function;
+        private final LoxList list;
+        private final Object[] results;
+        private final int from;
+        private final int to;
+        private final int threshold;
+
+        MapAction(Interpreter interpreter, LoxCallable function, LoxList list, Object[] results,
+                int from, int to, int threshold) {
+            this.interpreter = interpreter;
+            this.function = function;
+            this.list = list;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > threshold) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new MapAction(interpreter, function, list, results, from, middle, threshold),
+                    new MapAction(interpreter, function, list, results, middle, to, threshold));
+                return;
+            }
+            Interpreter worker = interpreter.fork();
+            try {
+                List<Object> arguments = new ArrayList<>(1);
+                arguments.add(null);
+                for (int i = from; i < to; i++) {
+                    arguments.set(0, list.get(i));
+                    results[i] = worker.callBack(function, arguments);
+                }
+            } finally {
+                worker.finish();
+            }
+        }
+    }
+
+    private static class ReduceTask extends RecursiveTask<Object> {
+        private final Interpreter interpreter;
+        private final LoxCallable function;
+        private final LoxList list;
+        private final int from;
+        private final int to;
+        private final int threshold;
+
+        ReduceTask(Interpreter interpreter, LoxCallable function, LoxList list, int from, int to, int threshold) {
+            this.interpreter = interpreter;
+            this.function = function;
+            this.list = list;
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected Object compute() {
+            if (to - from > threshold) {
+                int middle = (from + to) >>> 1;
+                ReduceTask left = new ReduceTask(interpreter, function, list, from, middle, threshold);
+                ReduceTask right = new ReduceTask(interpreter, function, list, middle, to, threshold);
+                right.fork();
+                Object leftResult = left.compute();
+                Object rightResult = right.join();
+                Interpreter combiner = interpreter.fork();
+                try {
+                    return apply(combiner, function, leftResult, rightResult);
+                } finally {
+                    combiner.finish();
+                }
+            }
+            Interpreter worker = interpreter.fork();
+            try {
+                Object result = list.get(from);
+                for (int i = from + 1; i < to; i++) {
+                    result = apply(worker, function, result, list.get(i));
+                }
+                return result;
+            } finally {
+                worker.finish();
+            }
+        }
+    }
+}
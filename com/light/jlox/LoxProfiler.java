@@ -0,0 +1,205 @@
+package com.light.jlox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sampling profiler for Lox functions. Every interpreter being profiled
+ * keeps a shadow stack of the callables it is inside of and the lines they
+ * were called from; a daemon thread copies all of them at a fixed interval.
+ * A forked interpreter's stack is released when the fork finishes, so only
+ * live fibers and parallel workers are sampled.
+ * The samples are written in collapsed-stack format (one `a;b;c count` line
+ * per distinct stack, ready for flamegraph.pl) and summarized as a table of
+ * the functions with the most self time. The interval defaults to 10 ms and
+ * can be changed with -Djlox.profile.interval (milliseconds).
+ */
+final class LoxProfiler {
+    // samples are copied on the sampler thread, so a short interval costs a core
+    private static final long INTERVAL_NANOS =
+        TimeUnit.MILLISECONDS.toNanos(Integer.getInteger("jlox.profile.interval", 10));
+    private static final int TOP = 20;
+
+    /**
+     * One interpreter's calls. Only its own thread pushes and pops; the
+     * sampler reads it racily, publishing the depth is all that is ordered.
+     */
+    static final class ShadowStack {
+        private static final VarHandle DEPTH;
+
+        static {
+            try {
+                DEPTH = MethodHandles.lookup().findVarHandle(ShadowStack.class, "depth", int.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        final LoxProfiler profiler;
+        private Object[] callees = new Object[64];
+        private int[] lines = new int[64];
+        @SuppressWarnings("unused")
+        private int depth = 0;
+
+        private ShadowStack(LoxProfiler profiler) {
+            this.profiler = profiler;
+        }
+
+        void push(Object callee, int line) {
+            int top = (int)DEPTH.getOpaque(this);
+            if (top == callees.length) {
+                callees = Arrays.copyOf(callees, top * 2);
+                lines = Arrays.copyOf(lines, top * 2);
+            }
+            callees[top] = callee;
+            lines[top] = line;
+            DEPTH.setRelease(this, top + 1);
+        }
+
+        void pop() {
+            int top = (int)DEPTH.getOpaque(this) - 1;
+            callees[top] = null;
+            DEPTH.setRelease(this, top);
+        }
+
+        /** Stops sampling this stack, once its interpreter is done. */
+        void release() {
+            profiler.stacks.remove(this);
+        }
+
+        void reset() {
+            int top = (int)DEPTH.getOpaque(this);
+            Arrays.fill(callees, 0, Math.min(top, callees.length), null);
+            DEPTH.setRelease(this, 0);
+        }
+
+        private String sample() {
+            int top = (int)DEPTH.getAcquire(this);
+            if (top == 0) return null;
+            Object[] callees = this.callees;
+            int[] lines = this.lines;
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < top && i < callees.length && i < lines.length; i++) {
+                Object callee = callees[i];
+                if (callee == null) continue;
+                if (builder.length() > 0) builder.append(';');
+                builder.append(name(callee));
+                if (lines[i] > 0) builder.append(" (line ").append(lines[i]).append(')');
+            }
+            return builder.length() == 0 ? null : builder.toString();
+        }
+    }
+
+    private final Set<ShadowStack> stacks = ConcurrentHashMap.newKeySet();
+    private final Map<String, Long> samples = new HashMap<>();
+    private volatile boolean running = false;
+    private Thread sampler;
+
+    ShadowStack newStack() {
+        ShadowStack stack = new ShadowStack(this);
+        stacks.add(stack);
+        return stack;
+    }
+
+    void start() {
+        running = true;
+        sampler = new Thread(this::sampleLoop, "lox-profiler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    void stop() {
+        running = false;
+        try {
+            sampler.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void sampleLoop() {
+        while (running) {
+            LockSupport.parkNanos(INTERVAL_NANOS);
+            for (ShadowStack stack : stacks) {
+                String sample = stack.sample();
+                if (sample == null) continue;
+                synchronized (samples) {
+                    samples.merge(sample, 1L, Long::sum);
+                }
+            }
+        }
+    }
+
+    static String name(Object callee) {
+        String name = callee.toString();
+        if (name.startsWith("<fn ") && name.endsWith(">")) {
+            return name.substring("<fn ".length(), name.length() - 1);
+        }
+        return name;
+    }
+
+    void writeCollapsed(Path file) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            synchronized (samples) {
+                samples.entrySet().stream()
+                    .sorted(Map.Entry.comparingByKey())
+                    .forEach(entry -> writer.println(entry.getKey() + " " + entry.getValue()));
+            }
+        }
+    }
+
+    void writeTable(PrintStream out) {
+        Map<String, Long> self = new HashMap<>();
+        Map<String, Long> total = new HashMap<>();
+        long count = 0;
+        synchronized (samples) {
+            for (Map.Entry<String, Long> entry : samples.entrySet()) {
+                String[] frames = entry.getKey().split(";");
+                long n = entry.getValue();
+                count += n;
+                self.merge(function(frames[frames.length - 1]), n, Long::sum);
+                // recursion must not count a function twice in one sample
+                Set<String> seen = new HashSet<>();
+                for (String frame : frames) {
+                    if (seen.add(function(frame))) total.merge(function(frame), n, Long::sum);
+                }
+            }
+        }
+
+        out.println("Samples: " + count + " (every " + TimeUnit.NANOSECONDS.toMillis(INTERVAL_NANOS) + " ms)");
+        out.println(String.format("%8s %8s  %s", "self", "total", "function"));
+        List<String> functions = new ArrayList<>(total.keySet());
+        functions.sort((a, b) -> Long.compare(self.getOrDefault(b, 0L), self.getOrDefault(a, 0L)));
+        for (String function : functions.subList(0, Math.min(TOP, functions.size()))) {
+            out.println(String.format("%7.1f%% %7.1f%%  %s",
+                percent(self.getOrDefault(function, 0L), count),
+                percent(total.get(function), count),
+                function));
+        }
+    }
+
+    private static String function(String frame) {
+        int line = frame.lastIndexOf(" (line ");
+        return line == -1 ? frame : frame.substring(0, line);
+    }
+
+    private static double percent(long part, long whole) {
+        return whole == 0 ? 0 : 100.0 * part / whole;
+    }
+}
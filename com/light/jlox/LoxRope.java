@@ -0,0 +1,85 @@
+package com.light.jlox;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Lazily flattened string concatenation. Building a string with repeated
+ * `s = s + x` only links nodes together; the characters are copied once,
+ * the first time the rope is printed, compared or otherwise needs a String.
+ */
+final class LoxRope implements CharSequence {
+    // below this the copy is cheaper than keeping a node around
+    private static final int FLAT_THRESHOLD = 64;
+
+    // volatile so a rope shared between fibers can be flattened by either
+    private volatile CharSequence left;
+    private volatile CharSequence right;
+    private volatile String flat;
+    private final int length;
+
+    private LoxRope(CharSequence left, CharSequence right) {
+        this.left = left;
+        this.right = right;
+        this.length = left.length() + right.length();
+    }
+
+    static CharSequence concat(CharSequence left, CharSequence right) {
+        if (left.length() == 0) return right;
+        if (right.length() == 0) return left;
+        if (left.length() + right.length() < FLAT_THRESHOLD) {
+            return left.toString() + right.toString();
+        }
+        return new LoxRope(left, right);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        String result = flat;
+        if (result == null) result = flatten();
+        return result;
+    }
+
+    // iterative so that long left-leaning chains don't overflow the stack
+    private synchronized String flatten() {
+        if (flat != null) return flat;
+
+        StringBuilder builder = new StringBuilder(length);
+        Deque<CharSequence> pending = new ArrayDeque<>();
+        pending.push(this);
+        while (!pending.isEmpty()) {
+            CharSequence part = pending.pop();
+            if (part instanceof LoxRope) {
+                LoxRope rope = (LoxRope)part;
+                // children are cleared only after flat is set
+                CharSequence left = rope.left;
+                CharSequence right = rope.right;
+                if (left != null && right != null) {
+                    pending.push(right);
+                    pending.push(left);
+                    continue;
+                }
+            }
+            builder.append(part.toString());
+        }
+        flat = builder.toString();
+        left = null;
+        right = null;
+        return flat;
+    }
+}
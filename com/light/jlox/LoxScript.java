@@ -0,0 +1,83 @@
+package com.light.jlox;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A scanned, parsed and resolved program. Immutable once compiled, so one
+ * script can be run by any number of contexts, concurrently. The lowered
+ * forms used by the flat and vm engines are built on first use and shared
+ * the same way; the tree they are built from is dropped then, so a script
+ * only keeps the form its engine runs. A script only runs in contexts of
+ * the engine that compiled it, whose global slots it refers to.
+ *
+ * A script that imports others carries every module it needs, directly or
+ * not, each itself a LoxScript shared with all other scripts importing it.
+ */
+public final class LoxScript {
+    // kept for snapshots, which rebuild the script from it, see LoxSnapshot
+    final String source;
+    final LoxEngine.Kind kind;
+    final Globals.Slots slots;
+    // null once lowered into flat or compiled
+    private List<Stmt> statements;
+    private final List<String> errors;
+    // this script's own import statements
+    final List<Stmt.Import> imports;
+    // by absolute path, each after the modules it imports
+    final Map<String, LoxScript> modules;
+
+    private FlatAst flat;
+    private VmFunction compiled;
+
+    LoxScript(String source, LoxEngine.Kind kind, Globals.Slots slots, List<Stmt> statements, List<String> errors) {
+        this(source, kind, slots, statements, errors, Collections.emptyList(), Collections.emptyMap());
+    }
+
+    LoxScript(String source, LoxEngine.Kind kind, Globals.Slots slots, List<Stmt> statements, List<String> errors,
+              List<Stmt.Import> imports, Map<String, LoxScript> modules) {
+        this.source = source;
+        this.kind = kind;
+        this.slots = slots;
+        this.statements = Collections.unmodifiableList(statements);
+        this.errors = Collections.unmodifiableList(errors);
+        this.imports = Collections.unmodifiableList(imports);
+        this.modules = Collections.unmodifiableMap(modules);
+    }
+
+    /** This script with the modules it imports, and any errors found in them. */
+    LoxScript link(Map<String, LoxScript> modules, List<String> errors) {
+        return new LoxScript(source, kind, slots, statements, errors, imports, modules);
+    }
+
+    public boolean hasErrors() {
+        return !errors.isEmpty();
+    }
+
+    public List<String> errors() {
+        return errors;
+    }
+
+    /** The tree, which only the tree engine runs. */
+    synchronized List<Stmt> statements() {
+        if (statements == null) throw new IllegalStateException("The tree was dropped once lowered.");
+        return statements;
+    }
+
+    synchronized FlatAst flat() {
+        if (flat == null) {
+            flat = FlatAst.flatten(this, statements());
+            statements = null;
+        }
+        return flat;
+    }
+
+    synchronized VmFunction compiled() {
+        if (compiled == null) {
+            compiled = new VmCompiler(this).compile(statements());
+            statements = null;
+        }
+        return compiled;
+    }
+}
@@ -0,0 +1,580 @@
+package com.light.jlox;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The globals of a context, and everything reachable from them, saved after
+ * a script has set them up so another process can start from them instead
+ * of running it again. Classes, closures with their captured cells,
+ * instances, lists and maps are kept with their sharing and cycles intact.
+ *
+ * Functions refer to their code by a node id that stays the same as long as
+ * the source does: the declaration's offset in the FlatAst for the flat
+ * engine, and for the others its position among the script's declarations,
+ * outer ones first, in source order. Each engine's code knows the script it
+ * comes from, so the scripts an image needs are found by the same walk that
+ * finds its functions. The image carries the source of every one of them,
+ * so loading it compiles those (once per
+ * engine) and never runs them; restoring it into a context then only
+ * rebuilds the objects. Captured variables are laid out differently by each
+ * engine, so an image is restored by the engine kind that saved it.
+ *
+ * Natives are saved by the global name they were found under and looked up
+ * again on restore. Fibers, channels and other host objects can't be saved.
+ */
+public final class LoxSnapshot {
+    private static final int MAGIC = 0x4a4c5853; // "JLXS"
+    private static final int VERSION = 1;
+
+    // value tags
+    private static final int NIL = 0;
+    private static final int FALSE = 1;
+    private static final int TRUE = 2;
+    private static final int NUMBER = 3;
+    private static final int STRING = 4;
+    private static final int OBJECT = 5;
+
+    // object kinds; objects are numbered so those a constructor needs come first
+    private static final int NATIVE = 0;
+    private static final int CELL = 1;
+    private static final int LIST = 2;
+    private static final int MAP = 3;
+    private static final int CLASS = 4;    // superclasses before subclasses
+    private static final int INSTANCE = 5; // after the classes
+    private static final int FUNCTION = 6; // after the instances methods are bound to
+
+    final LoxEngine.Kind kind;
+    // compiled from the sources in the image, shared by every restore
+    final List<LoxScript> scripts;
+    // the modules the saving context had imported, which restoring marks as imported
+    final List<String> imported;
+    // the objects and globals, decoded afresh for each context
+    private final byte[] heap;
+
+    private LoxSnapshot(LoxEngine.Kind kind, List<LoxScript> scripts, List<String> imported, byte[] heap) {
+        this.kind = kind;
+        this.scripts = scripts;
+        this.imported = imported;
+        this.heap = heap;
+    }
+
+    static LoxEngine.Kind kindOf(Interpreter interpreter) {
+        if (interpreter instanceof VmInterpreter) return LoxEngine.Kind.VM;
+        if (interpreter instanceof FlatInterpreter) return LoxEngine.Kind.FLAT;
+        return LoxEngine.Kind.TREE;
+    }
+
+    // every function declaration, outer before inner, in source order
+    private static void declarations(Stmt stmt, List<Stmt.Function> out) {
+        if (stmt instanceof Stmt.Function) {
+            out.add((Stmt.Function)stmt);
+            for (Stmt inner : ((Stmt.Function)stmt).body) declarations(inner, out);
+        } else if (stmt instanceof Stmt.Class) {
+            for (Stmt method : ((Stmt.Class)stmt).methods) declarations(method, out);
+        } else if (stmt instanceof Stmt.Block) {
+            for (Stmt inner : ((Stmt.Block)stmt).statements) declarations(inner, out);
+        } else if (stmt instanceof Stmt.If) {
+            declarations(((Stmt.If)stmt).thenBranch, out);
+            if (((Stmt.If)stmt).elseBranch != null) declarations(((Stmt.If)stmt).elseBranch, out);
+        } else if (stmt instanceof Stmt.While) {
+            declarations(((Stmt.While)stmt).body, out);
+        }
+    }
+
+    static List<Stmt.Function> declarations(LoxScript script) {
+        List<Stmt.Function> declarations = new ArrayList<>();
+        for (Stmt stmt : script.statements()) declarations(stmt, declarations);
+        return declarations;
+    }
+
+    // the compiler emits nested functions as constants, in the same order
+    private static void declarations(VmFunction function, List<VmFunction> out) {
+        for (Object constant : function.constants) {
+            if (constant instanceof VmFunction) {
+                out.add((VmFunction)constant);
+                declarations((VmFunction)constant, out);
+            }
+        }
+    }
+
+    private static List<VmFunction> compiledDeclarations(LoxScript script) {
+        List<VmFunction> declarations = new ArrayList<>();
+        declarations(script.compiled(), declarations);
+        return declarations;
+    }
+
+    private static boolean isObject(Object value) {
+        return value != null && !(value instanceof Boolean) && !(value instanceof Double)
+            && !Interpreter.isString(value);
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Writes everything reachable from the interpreter's globals. */
+    static void save(Interpreter interpreter, Path file) throws IOException {
+        Writer writer = new Writer(interpreter);
+        ByteArrayOutputStream heap = new ByteArrayOutputStream();
+        writer.writeHeap(new DataOutputStream(heap));
+
+        try (OutputStream stream = Files.newOutputStream(file)) {
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(kindOf(interpreter).name());
+            out.writeInt(writer.used.size());
+            for (LoxScript script : writer.used.keySet()) writeString(out, script.source);
+            out.writeInt(interpreter.imported.size());
+            for (String module : interpreter.imported) writeString(out, module);
+            heap.writeTo(out);
+            out.flush();
+        }
+    }
+
+    /** Reads an image and compiles the scripts its functions come from. */
+    static LoxSnapshot load(LoxEngine engine, Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) throw new IOException("Not a jlox snapshot.");
+            LoxEngine.Kind kind = LoxEngine.Kind.valueOf(in.readUTF());
+            if (kind != engine.kind()) {
+                throw new IOException("Snapshot was saved by the " + kind.name().toLowerCase() + " engine.");
+            }
+            int count = in.readInt();
+            List<LoxScript> scripts = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                LoxScript script = engine.compileUnit(readString(in), Path.of("").toAbsolutePath());
+                if (script.hasErrors()) throw new IOException("Snapshot holds a script that doesn't compile.");
+                scripts.add(script);
+            }
+            List<String> imported = new ArrayList<>();
+            for (int i = in.readInt(); i > 0; i--) imported.add(readString(in));
+            return new LoxSnapshot(kind, scripts, imported, in.readAllBytes());
+        } catch (EOFException | IllegalArgumentException e) {
+            throw new IOException("Not a jlox snapshot.");
+        }
+    }
+
+    /** Rebuilds the saved objects in the interpreter and defines the saved globals. */
+    void restore(Interpreter interpreter) throws IOException {
+        if (kindOf(interpreter) != kind) {
+            throw new IOException("Snapshot was saved by the " + kind.name().toLowerCase() + " engine.");
+        }
+        for (LoxScript script : scripts) {
+            if (script.slots != interpreter.globals.slots) throw new IOException("Snapshot was loaded by another engine.");
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(heap))) {
+            new Reader(interpreter).readHeap(in);
+        } catch (EOFException | IndexOutOfBoundsException | ClassCastException | ArrayStoreException e) {
+            throw new IOException("Corrupt snapshot.");
+        }
+    }
+
+    private static final class Writer {
+        private final Interpreter interpreter;
+        private final Map<String, Object> globals;
+        private final Map<Object, String> natives = new IdentityHashMap<>();
+
+        // the node id of each declaration, for the scripts functions were found in
+        private final Map<Object, Integer> declarationId = new IdentityHashMap<>();
+        // the scripts functions were found in, numbered in the image
+        final Map<LoxScript, Integer> used = new LinkedHashMap<>();
+
+        private final List<Object> objects = new ArrayList<>();
+        private final Map<Object, Integer> ids = new IdentityHashMap<>();
+
+        Writer(Interpreter interpreter) {
+            this.interpreter = interpreter;
+            this.globals = interpreter.globals.defined();
+            for (Map.Entry<String, Object> global : globals.entrySet()) {
+                if (isNative(global.getValue())) natives.putIfAbsent(global.getValue(), global.getKey());
+            }
+        }
+
+        // numbers the script in the image, and its declarations the first time
+        private int use(LoxScript script) {
+            Integer index = used.get(script);
+            if (index != null) return index;
+            if (script.kind != LoxEngine.Kind.FLAT) {
+                List<?> declarations = script.kind == LoxEngine.Kind.VM ? compiledDeclarations(script) : declarations(script);
+                for (int i = 0; i < declarations.size(); i++) declarationId.put(declarations.get(i), i);
+            }
+            used.put(script, used.size());
+            return used.size() - 1;
+        }
+
+        private static boolean isNative(Object value) {
+            return value instanceof LoxCallable && !(value instanceof LoxClass)
+                && !(value instanceof LoxFunction) && !(value instanceof FlatFunction) && !(value instanceof VmClosure);
+        }
+
+        void writeHeap(DataOutputStream out) throws IOException {
+            collect();
+            out.writeInt(objects.size());
+            for (Object object : objects) writeShell(out, object);
+            for (Object object : objects) writeContents(out, object);
+
+            List<Map.Entry<String, Object>> saved = new ArrayList<>();
+            for (Map.Entry<String, Object> global : globals.entrySet()) {
+                // builtins are defined by every context anyway
+                if (!global.getKey().equals(natives.get(global.getValue()))) saved.add(global);
+            }
+            out.writeInt(saved.size());
+            for (Map.Entry<String, Object> global : saved) {
+                writeString(out, global.getKey());
+                writeValue(out, global.getValue());
+            }
+        }
+
+        // everything reachable from the globals, without recursion, then in constructor order
+        private void collect() throws IOException {
+            Deque<Object> pending = new ArrayDeque<>();
+            Map<Object, Boolean> seen = new IdentityHashMap<>();
+            for (Object value : globals.values()) {
+                if (isObject(value) && seen.put(value, true) == null) pending.add(value);
+            }
+            while (!pending.isEmpty()) {
+                Object object = pending.poll();
+                objects.add(object);
+                for (Object child : children(object)) {
+                    if (isObject(child) && seen.put(child, true) == null) pending.add(child);
+                }
+            }
+
+            Map<Object, Integer> ranks = new IdentityHashMap<>();
+            for (Object object : objects) ranks.put(object, rank(object));
+            objects.sort(Comparator.comparingInt(ranks::get));
+            for (int i = 0; i < objects.size(); i++) ids.put(objects.get(i), i);
+        }
+
+        private int rank(Object object) {
+            if (object instanceof LoxClass) {
+                int depth = 0;
+                for (LoxClass superclass = ((LoxClass)object).superclass; superclass != null; superclass = superclass.superclass) {
+                    depth++;
+                }
+                return CLASS + depth;
+            }
+            if (object instanceof LoxInstance) return Integer.MAX_VALUE - 1;
+            if (object instanceof LoxFunction || object instanceof FlatFunction || object instanceof VmClosure) {
+                return Integer.MAX_VALUE;
+            }
+            return NATIVE;
+        }
+
+        private List<Object> children(Object object) throws IOException {
+            List<Object> children = new ArrayList<>();
+            if (natives.containsKey(object)) {
+                return children;
+            } else if (object instanceof Cell) {
+                children.add(((Cell)object).get());
+            } else if (object instanceof VmUpvalue) {
+                children.add(VmInterpreter.valueOf((VmUpvalue)object));
+            } else if (object instanceof LoxList) {
+                LoxList list = (LoxList)object;
+                for (int i = 0; i < list.size(); i++) children.add(list.get(i));
+            } else if (object instanceof LoxMap) {
+                LoxList keys = ((LoxMap)object).keys();
+                for (int i = 0; i < keys.size(); i++) children.add(((LoxMap)object).get(keys.get(i)));
+            } else if (object instanceof LoxClass) {
+                children.add(((LoxClass)object).superclass);
+                children.addAll(((LoxClass)object).methods().values());
+            } else if (object instanceof LoxInstance) {
+                children.add(((LoxInstance)object).klass);
+                children.addAll(((LoxInstance)object).fields().values());
+            } else if (object instanceof LoxFunction) {
+                children.addAll(Arrays.asList((Object[])((LoxFunction)object).upvalues));
+            } else if (object instanceof FlatFunction) {
+                children.addAll(Arrays.asList((Object[])((FlatFunction)object).upvalues));
+            } else if (object instanceof VmClosure) {
+                children.addAll(Arrays.asList((Object[])((VmClosure)object).upvalues));
+                children.add(((VmClosure)object).receiver);
+            } else {
+                throw new IOException("Can't snapshot " + Interpreter.stringify(object) + ".");
+            }
+            children.removeIf(child -> child == null);
+            return children;
+        }
+
+        private void writeShell(DataOutputStream out, Object object) throws IOException {
+            if (natives.containsKey(object)) {
+                out.writeByte(NATIVE);
+                writeString(out, natives.get(object));
+            } else if (object instanceof Cell || object instanceof VmUpvalue) {
+                out.writeByte(CELL);
+            } else if (object instanceof LoxList) {
+                out.writeByte(LIST);
+            } else if (object instanceof LoxMap) {
+                out.writeByte(MAP);
+            } else if (object instanceof LoxClass) {
+                out.writeByte(CLASS);
+                writeString(out, ((LoxClass)object).name);
+                out.writeInt(idOf(((LoxClass)object).superclass));
+            } else if (object instanceof LoxInstance) {
+                out.writeByte(INSTANCE);
+                out.writeInt(idOf(((LoxInstance)object).klass));
+            } else {
+                out.writeByte(FUNCTION);
+                writeFunction(out, object);
+            }
+        }
+
+        // script, node id, then what the engine's function holds besides its captures
+        private void writeFunction(DataOutputStream out, Object function) throws IOException {
+            Object code;
+            Object[] upvalues;
+            LoxScript script;
+            if (function instanceof LoxFunction) {
+                code = ((LoxFunction)function).declaration;
+                upvalues = ((LoxFunction)function).upvalues;
+                script = ((LoxFunction)function).declaration.script;
+            } else if (function instanceof FlatFunction) {
+                code = ((FlatFunction)function).ast;
+                upvalues = ((FlatFunction)function).upvalues;
+                script = ((FlatFunction)function).ast.script;
+            } else {
+                code = ((VmClosure)function).function;
+                upvalues = ((VmClosure)function).upvalues;
+                script = ((VmClosure)function).function.script;
+            }
+            if (script == null) throw new IOException("Can't snapshot " + function + ": its script is unknown.");
+            out.writeInt(use(script));
+            out.writeInt(function instanceof FlatFunction ? ((FlatFunction)function).declaration : declarationId.get(code));
+            if (function instanceof LoxFunction) out.writeBoolean(((LoxFunction)function).isInitializer);
+            if (function instanceof FlatFunction) out.writeBoolean(((FlatFunction)function).isInitializer);
+            if (function instanceof VmClosure) out.writeInt(idOf(((VmClosure)function).receiver));
+            out.writeInt(upvalues.length);
+        }
+
+        private void writeContents(DataOutputStream out, Object object) throws IOException {
+            if (natives.containsKey(object)) return;
+            if (object instanceof Cell) {
+                writeValue(out, ((Cell)object).get());
+            } else if (object instanceof VmUpvalue) {
+                writeValue(out, VmInterpreter.valueOf((VmUpvalue)object));
+            } else if (object instanceof LoxList) {
+                LoxList list = (LoxList)object;
+                out.writeInt(list.size());
+                for (int i = 0; i < list.size(); i++) writeValue(out, list.get(i));
+            } else if (object instanceof LoxMap) {
+                LoxList keys = ((LoxMap)object).keys();
+                out.writeInt(keys.size());
+                for (int i = 0; i < keys.size(); i++) {
+                    writeValue(out, keys.get(i));
+                    writeValue(out, ((LoxMap)object).get(keys.get(i)));
+                }
+            } else if (object instanceof LoxClass) {
+                Map<String, LoxMethod> methods = ((LoxClass)object).methods();
+                out.writeInt(methods.size());
+                for (Map.Entry<String, LoxMethod> method : methods.entrySet()) {
+                    writeString(out, method.getKey());
+                    out.writeInt(idOf(method.getValue()));
+                }
+            } else if (object instanceof LoxInstance) {
+                Map<String, Object> fields = ((LoxInstance)object).fields();
+                out.writeInt(fields.size());
+                for (Map.Entry<String, Object> field : fields.entrySet()) {
+                    writeString(out, field.getKey());
+                    writeValue(out, field.getValue());
+                }
+            } else {
+                Object[] upvalues = object instanceof LoxFunction ? ((LoxFunction)object).upvalues
+                    : object instanceof FlatFunction ? ((FlatFunction)object).upvalues
+                    : ((VmClosure)object).upvalues;
+                for (Object upvalue : upvalues) out.writeInt(idOf(upvalue));
+            }
+        }
+
+        private int idOf(Object object) {
+            return object == null ? -1 : ids.get(object);
+        }
+
+        private void writeValue(DataOutputStream out, Object value) throws IOException {
+            if (value == null) {
+                out.writeByte(NIL);
+            } else if (value instanceof Boolean) {
+                out.writeByte((boolean)value ? TRUE : FALSE);
+            } else if (value instanceof Double) {
+                out.writeByte(NUMBER);
+                out.writeDouble((double)value);
+            } else if (Interpreter.isString(value)) {
+                out.writeByte(STRING);
+                writeString(out, value.toString());
+            } else {
+                out.writeByte(OBJECT);
+                out.writeInt(ids.get(value));
+            }
+        }
+    }
+
+    private final class Reader {
+        private final Interpreter interpreter;
+        private Object[] objects;
+        // filled in after every object exists, since methods may capture their own class
+        private final Map<Integer, Map<String, LoxMethod>> methods = new HashMap<>();
+
+        // per script, the code each node id stands for
+        private final Map<Integer, List<Stmt.Function>> declarations = new HashMap<>();
+        private final Map<Integer, List<VmFunction>> compiled = new HashMap<>();
+
+        Reader(Interpreter interpreter) {
+            this.interpreter = interpreter;
+        }
+
+        void readHeap(DataInputStream in) throws IOException {
+            objects = new Object[in.readInt()];
+            int[] kinds = new int[objects.length];
+            for (int i = 0; i < objects.length; i++) {
+                kinds[i] = in.readByte();
+                objects[i] = readShell(in, kinds[i], i);
+            }
+            for (int i = 0; i < objects.length; i++) readContents(in, kinds[i], i);
+
+            for (int i = in.readInt(); i > 0; i--) {
+                String name = readString(in);
+                interpreter.globals.define(name, readValue(in));
+            }
+            interpreter.imported.addAll(imported);
+        }
+
+        private Object readShell(DataInputStream in, int kind, int id) throws IOException {
+            switch (kind) {
+                case NATIVE: {
+                    String name = readString(in);
+                    Object value = interpreter.globals.find(name);
+                    if (!Writer.isNative(value)) throw new IOException("Snapshot needs the native '" + name + "'.");
+                    return value;
+                }
+                case CELL:
+                    return LoxSnapshot.this.kind == LoxEngine.Kind.VM ? VmInterpreter.closedUpvalue() : new Cell(null);
+                case LIST:
+                    return new LoxList(interpreter.globals);
+                case MAP:
+                    return new LoxMap(interpreter.globals);
+                case CLASS: {
+                    String name = readString(in);
+                    LoxClass superclass = (LoxClass)object(in.readInt());
+                    Map<String, LoxMethod> declared = new HashMap<>();
+                    methods.put(id, declared);
+                    return new LoxClass(name, superclass, declared, interpreter.globals);
+                }
+                case INSTANCE:
+                    return new LoxInstance((LoxClass)object(in.readInt()));
+                case FUNCTION:
+                    return readFunction(in);
+                default:
+                    throw new IOException("Corrupt snapshot.");
+            }
+        }
+
+        private Object readFunction(DataInputStream in) throws IOException {
+            int index = in.readInt();
+            LoxScript script = scripts.get(index);
+            int node = in.readInt();
+            switch (LoxSnapshot.this.kind) {
+                case FLAT: {
+                    FlatAst ast = script.flat();
+                    if (ast.nodes[node + FlatAst.KIND] != FlatAst.STMT_FUNCTION) throw new IOException("Corrupt snapshot.");
+                    boolean isInitializer = in.readBoolean();
+                    return new FlatFunction(ast, node, new Cell[in.readInt()], isInitializer);
+                }
+                case VM: {
+                    VmFunction function = compiled.computeIfAbsent(index, key -> compiledDeclarations(script)).get(node);
+                    LoxInstance receiver = (LoxInstance)object(in.readInt());
+                    return new VmClosure(function, new VmUpvalue[in.readInt()], receiver);
+                }
+                default: {
+                    Stmt.Function declaration = declarations.computeIfAbsent(index, key -> declarations(script)).get(node);
+                    boolean isInitializer = in.readBoolean();
+                    return new LoxFunction(declaration, new Cell[in.readInt()], isInitializer);
+                }
+            }
+        }
+
+        private void readContents(DataInputStream in, int kind, int id) throws IOException {
+            Object object = objects[id];
+            switch (kind) {
+                case CELL:
+                    if (object instanceof Cell) {
+                        ((Cell)object).set(readValue(in));
+                    } else {
+                        VmInterpreter.close((VmUpvalue)object, readValue(in));
+                    }
+                    break;
+                case LIST:
+                    for (int i = in.readInt(); i > 0; i--) ((LoxList)object).add(readValue(in));
+                    break;
+                case MAP:
+                    for (int i = in.readInt(); i > 0; i--) {
+                        Object key = readValue(in);
+                        ((LoxMap)object).put(key, readValue(in));
+                    }
+                    break;
+                case CLASS:
+                    for (int i = in.readInt(); i > 0; i--) {
+                        String name = readString(in);
+                        methods.get(id).put(name, (LoxMethod)object(in.readInt()));
+                    }
+                    break;
+                case INSTANCE:
+                    for (int i = in.readInt(); i > 0; i--) {
+                        String name = readString(in);
+                        ((LoxInstance)object).define(name, readValue(in));
+                    }
+                    break;
+                case FUNCTION: {
+                    Object[] upvalues = object instanceof LoxFunction ? ((LoxFunction)object).upvalues
+                        : object instanceof FlatFunction ? ((FlatFunction)object).upvalues
+                        : ((VmClosure)object).upvalues;
+                    for (int i = 0; i < upvalues.length; i++) upvalues[i] = object(in.readInt());
+                    break;
+                }
+                default:
+                    break;
+            }
+        }
+
+        private Object object(int id) {
+            return id == -1 ? null : objects[id];
+        }
+
+        private Object readValue(DataInputStream in) throws IOException {
+            switch (in.readByte()) {
+                case NIL: return null;
+                case FALSE: return Boolean.FALSE;
+                case TRUE: return Boolean.TRUE;
+                case NUMBER: return LoxValues.number(in.readDouble());
+                case STRING: return readString(in);
+                case OBJECT: return objects[in.readInt()];
+                default: throw new IOException("Corrupt snapshot.");
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.light.jlox;
+
+/**
+ * Canonical boxes for the values the interpreter produces most often.
+ * Integral numbers in a small range come from a preboxed cache, so counting
+ * loops don't allocate a new Double per step. The range can be changed with
+ * -Djlox.numberCache.low and -Djlox.numberCache.high.
+ */
+final class LoxValues {
+    private static final int LOW = Integer.getInteger("jlox.numberCache.low", -128);
+    private static final int HIGH = Integer.getInteger("jlox.numberCache.high", 1024);
+
+    private static final Double[] NUMBERS = new Double[Math.max(0, HIGH - LOW + 1)];
+
+    static {
+        for (int i = 0; i < NUMBERS.length; i++) {
+            NUMBERS[i] = (double)(LOW + i);
+        }
+    }
+
+    private LoxValues() {}
+
+    static Double number(double value) {
+        int index = (int)value;
+        // -0.0 prints differently from 0, so it never shares the cached box
+        if (index == value && index >= LOW && index <= HIGH
+                && (index != 0 || Double.doubleToRawLongBits(value) == 0L)) {
+            return NUMBERS[index - LOW];
+        }
+        return value;
+    }
+
+    static Boolean bool(boolean value) {
+        return value ? Boolean.TRUE : Boolean.FALSE;
+    }
+}
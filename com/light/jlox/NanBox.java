@@ -0,0 +1,43 @@
+package com.light.jlox;
+
+/**
+ * NaN-boxed encoding of Lox values in a long. Numbers are stored as their
+ * raw double bits; everything else lives in the quiet NaN space. Objects
+ * are only tagged here, the reference itself sits in a parallel Object[]
+ * slot so the GC can still see it.
+ */
+final class NanBox {
+    static final long SIGN_BIT = 0x8000000000000000L;
+    static final long QNAN = 0x7ffc000000000000L;
+
+    static final long NIL = QNAN | 1;
+    static final long FALSE = QNAN | 2;
+    static final long TRUE = QNAN | 3;
+    static final long OBJECT = SIGN_BIT | QNAN;
+
+    private static final long CANONICAL_NAN = Double.doubleToLongBits(Double.NaN);
+
+    private NanBox() {}
+
+    static boolean isNumber(long value) {
+        return (value & QNAN) != QNAN;
+    }
+
+    static long number(double value) {
+        // keeps arbitrary NaN payloads out of the tagged range
+        if (value != value) return CANONICAL_NAN;
+        return Double.doubleToRawLongBits(value);
+    }
+
+    static double asNumber(long value) {
+        return Double.longBitsToDouble(value);
+    }
+
+    static long bool(boolean value) {
+        return value ? TRUE : FALSE;
+    }
+
+    static boolean isFalsey(long value) {
+        return value == NIL || value == FALSE;
+    }
+}
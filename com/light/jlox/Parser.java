@@ -8,10 +8,12 @@ import java.util.List;
 
 class Parser {
     private final List<Token> tokens;
+    private final ErrorReporter reporter;
     private int current = 0;
 
-    Parser(List<Token> tokens) {
+    Parser(List<Token> tokens, ErrorReporter reporter) {
         this.tokens = tokens;
+        this.reporter = reporter;
     }
 
     List<Stmt> parse() {
@@ -47,6 +49,7 @@ class Parser {
             case VAR:
             case FOR:
             case IF:
+            case IMPORT:
             case WHILE:
             case PRINT:
             case RETURN:
@@ -97,6 +100,7 @@ class Parser {
         if (match(CLASS)) return classStatement();
         if (match(FOR)) return forStatement();
         if (match(IF)) return ifStatement();
+        if (match(IMPORT)) return importStatement();
         if (match(PRINT)) return printStatement();
         if (match(RETURN)) return returnStatement();
         if (match(WHILE)) return whileStatement();
@@ -143,6 +147,7 @@ class Parser {
     }
 
     private Stmt forStatement() {
+        Token keyword = previous();
         consume(LEFT_PAREN, "Expect '(' after 'for'.");
 
         Stmt initializer;
@@ -171,8 +176,8 @@ class Parser {
         if (increment != null) {
             body = new Stmt.Block(Arrays.asList(body, new Stmt.Expression(increment)));
         }
-        if (condition == null) condition = new Expr.Literal(true);
-        body = new Stmt.While(condition, body);
+        if (condition == null) condition = new Expr.Literal(keyword, true);
+        body = new Stmt.While(keyword, condition, body);
 
         if (initializer != null) {
             body = new Stmt.Block(Arrays.asList(initializer, body));
@@ -182,12 +187,13 @@ class Parser {
     }
 
     private Stmt whileStatement() {
+        Token keyword = previous();
         consume(LEFT_PAREN, "Expect '(' after 'while'.");
         Expr condition = expression();
         consume(RIGHT_PAREN, "Expect ')' after 'while' condition.");
 
         Stmt body = statement();
-        return new Stmt.While(condition, body);
+        return new Stmt.While(keyword, condition, body);
     }
 
     private Stmt ifStatement() {
@@ -204,6 +210,14 @@ class Parser {
         return new Stmt.If(condition, thenBranch, elseBranch);
     }
 
+    private Stmt importStatement() {
+        Token keyword = previous();
+        Token path = consume(STRING, "Expect module path after 'import'.");
+        consume(SEMICOLON, "Expect ';' after import.");
+
+        return new Stmt.Import(keyword, path);
+    }
+
     private List<Stmt> block() {
         List<Stmt> statements = new ArrayList<>();
         while (!check(RIGHT_BRACE) && !isAtEnd()) {
@@ -216,10 +230,11 @@ class Parser {
     }
 
     private Stmt printStatement() {
+        Token keyword = previous();
         Expr value = expression();
         consume(SEMICOLON, "Expect ';' after value.");
 
-        return new Stmt.Print(value);
+        return new Stmt.Print(keyword, value);
     }
 
     private Stmt expressionStatement() {
@@ -246,6 +261,9 @@ class Parser {
             } else if (expr instanceof Expr.Get) {
                 Expr.Get get = (Expr.Get)expr;
                 return new Expr.Set(get.object, get.name, value);
+            } else if (expr instanceof Expr.Index) {
+                Expr.Index index = (Expr.Index)expr;
+                return new Expr.SetIndex(index.object, index.bracket, index.index, value);
             }
 
             error(equals, "Invalid assignment target.");
@@ -312,6 +330,10 @@ class Parser {
             } else if (match(DOT)) {
                 Token name = consume(IDENTIFIER, "Expect property name after '.'.");
                 expr = new Expr.Get(expr, name);
+            } else if (match(LEFT_BRACKET)) {
+                Expr index = expression();
+                Token bracket = consume(RIGHT_BRACKET, "Expect ']' after index.");
+                expr = new Expr.Index(expr, bracket, index);
             } else {
                 break;
             }
@@ -336,12 +358,12 @@ class Parser {
     }
 
     private Expr primary() {
-        if (match(TRUE)) return new Expr.Literal(true);
-        if (match(FALSE)) return new Expr.Literal(false);
-        if (match(NIL)) return new Expr.Literal(null);
+        if (match(TRUE)) return new Expr.Literal(previous(), true);
+        if (match(FALSE)) return new Expr.Literal(previous(), false);
+        if (match(NIL)) return new Expr.Literal(previous(), null);
 
         if (match(NUMBER, STRING)) {
-            return new Expr.Literal(previous().literal);
+            return new Expr.Literal(previous(), previous().literal);
         }
 
         if (match(IDENTIFIER)) return new Expr.Variable(previous());
@@ -362,7 +384,7 @@ class Parser {
         }
 
         if (match(IDENTIFIER, STRING, NUMBER)) {
-            return new Expr.Literal(peek().literal);
+            return new Expr.Literal(peek(), peek().literal);
         }
         
         throw error(peek(), "Expect expression.");
@@ -377,7 +399,7 @@ class Parser {
     }
 
     private ParseError error(Token token, String message) {
-        Lox.error(token.line, message);
+        reporter.error(token.line, message);
         return new ParseError();
     }
 
@@ -1,5 +1,6 @@
 package com.light.jlox;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -10,9 +11,11 @@ import com.light.jlox.Expr.Binary;
 import com.light.jlox.Expr.Call;
 import com.light.jlox.Expr.Get;
 import com.light.jlox.Expr.Grouping;
+import com.light.jlox.Expr.Index;
 import com.light.jlox.Expr.Literal;
 import com.light.jlox.Expr.Logical;
 import com.light.jlox.Expr.Set;
+import com.light.jlox.Expr.SetIndex;
 import com.light.jlox.Expr.Super;
 import com.light.jlox.Expr.This;
 import com.light.jlox.Expr.Unary;
@@ -23,6 +26,7 @@ import com.light.jlox.Stmt.Class;
 import com.light.jlox.Stmt.Expression;
 import com.light.jlox.Stmt.Function;
 import com.light.jlox.Stmt.If;
+import com.light.jlox.Stmt.Import;
 import com.light.jlox.Stmt.Print;
 import com.light.jlox.Stmt.Return;
 import com.light.jlox.Stmt.Var;
@@ -30,11 +34,53 @@ import com.light.jlox.Stmt.While;
 
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
-    private final Interpreter interpreter;
+    private final ErrorReporter reporter;
+    // the engine's numbering of global names, see Globals
+    private final Globals.Slots slots;
+    // the script's imports, in order, for the engine to load
+    final List<Import> imports = new ArrayList<>();
     private final Stack<Map<String, VariableStaticState>> scopes = new Stack<>();
     private FunctionType currentFunction = FunctionType.NONE;
     private boolean isInLoop = false;
     private ClassType currentClass = ClassType.NONE;
+    private FunctionScope function = null;
+    // statements being resolved, counting the one being visited
+    private int statementDepth = 0;
+
+    // what resolveLocal found, besides a capture index
+    private static final int LOCAL = -1;
+    private static final int GLOBAL = -2;
+    // how many scopes out the variable resolveLocal last found LOCAL is
+    private int distance;
+
+    /**
+     * One variable a function captures when it is created: taken from the
+     * scope `index` steps out from where the function is declared, or when
+     * not local, the enclosing function's capture number `index`.
+     */
+    static final class Capture {
+        final String name;
+        final boolean isLocal;
+        final int index;
+
+        Capture(String name, boolean isLocal, int index) {
+            this.name = name;
+            this.isLocal = isLocal;
+            this.index = index;
+        }
+    }
+
+    private static final class FunctionScope {
+        final FunctionScope enclosing;
+        // index in scopes of the function's parameter scope
+        final int base;
+        final List<Capture> captures = new ArrayList<>();
+
+        FunctionScope(FunctionScope enclosing, int base) {
+            this.enclosing = enclosing;
+            this.base = base;
+        }
+    }
 
     private class VariableStaticState {
 
@@ -82,8 +128,9 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         SUBCLASS
     }
 
-    Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+    Resolver(ErrorReporter reporter, Globals.Slots slots) {
+        this.reporter = reporter;
+        this.slots = slots;
     }
 
     @Override
@@ -102,7 +149,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         var scope = scopes.pop();
         for (var entry : scope.entrySet()) {
             if (!entry.getValue().isUsed() && !entry.getKey().startsWith("_")) {
-                Lox.error(entry.getValue().token, "Unused local variable.\n(Try prefixing the variable with '_' if this is intentional)");
+                reporter.error(entry.getValue().token, "Unused local variable.\n(Try prefixing the variable with '_' if this is intentional)");
             }
         }
     }
@@ -114,7 +161,9 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     }
 
     void resolve(Stmt statement) {
+        statementDepth++;
         statement.accept(this);
+        statementDepth--;
     }
 
     void resolve(Expr expr) {
@@ -124,7 +173,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitBreakStmt(Break stmt) {
         if (!isInLoop) {
-            Lox.error(stmt.keyword, "'break' must be within a loop.");
+            reporter.error(stmt.keyword, "'break' must be within a loop.");
         }
         return null;
     }
@@ -144,19 +193,37 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
-    private void resolveFunction(Stmt.Function function, FunctionType type) {
+    private void resolveFunction(Stmt.Function declaration, FunctionType type) {
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
+        function = new FunctionScope(function, scopes.size());
+        // methods always capture 'this' first, so binding can replace it
+        if (type == FunctionType.METHOD || type == FunctionType.INITIALIZER) {
+            function.captures.add(new Capture("this", true, 0));
+        }
         beginScope();
-        for (Token param: function.params) {
+        for (Token param: declaration.params) {
             declare(param);
             define(param);
         }
-        resolve(function.body);
+        resolve(declaration.body);
         endScope();
+        declaration.captures = function.captures.toArray(new Capture[0]);
+        function = function.enclosing;
         currentFunction = enclosingFunction;
     }
 
+    @Override
+    public Void visitImportStmt(Import stmt) {
+        // a module runs once, so importing it anywhere but the top level would mislead
+        if (statementDepth > 1) {
+            reporter.error(stmt.keyword, "Can only import at the top level.");
+        } else {
+            imports.add(stmt);
+        }
+        return null;
+    }
+
     @Override
     public Void visitIfStmt(If stmt) {
         resolve(stmt.condition);
@@ -176,11 +243,11 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitReturnStmt(Return stmt) {
         if (currentFunction == FunctionType.NONE) {
-            Lox.error(stmt.keyword, "Can't return from top-level code.");
+            reporter.error(stmt.keyword, "Can't return from top-level code.");
         }
         if (stmt.value != null) {
             if (currentFunction == FunctionType.INITIALIZER) {
-                Lox.error(stmt.keyword, "Can't return a value from an initializer");
+                reporter.error(stmt.keyword, "Can't return a value from an initializer");
             }
             resolve(stmt.value);
         }
@@ -202,7 +269,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
         var scope = scopes.peek();
         if (scope.containsKey(name.lexeme)) {
-            Lox.error(name, "A variable with the same name already exists in this scope.");
+            reporter.error(name, "A variable with the same name already exists in this scope.");
         }
         scope.put(name.lexeme, new VariableStaticState(name));
     }
@@ -225,7 +292,14 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitAssignExpr(Assign expr) {
         resolve(expr.value);
-        resolveLocal(expr, expr.name);
+        int upvalue = resolveLocal(expr.name.lexeme);
+        if (upvalue == GLOBAL) {
+            expr.slot = slots.slot(expr.name.lexeme);
+        } else if (upvalue == LOCAL) {
+            expr.depth = distance;
+        } else {
+            expr.upvalue = upvalue;
+        }
         return null;
     }
 
@@ -275,22 +349,57 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         if (!scopes.isEmpty()) {
             var scope = scopes.peek();
             if (scope.containsKey(expr.name.lexeme) && scope.get(expr.name.lexeme).isUninitialized()) {
-                Lox.error(expr.name, "Can't read local variable in it's own initializer");
+                reporter.error(expr.name, "Can't read local variable in it's own initializer");
             }
         }
-        resolveLocal(expr, expr.name);
+        int upvalue = resolveLocal(expr.name.lexeme);
+        if (upvalue == GLOBAL) {
+            expr.slot = slots.slot(expr.name.lexeme);
+        } else if (upvalue == LOCAL) {
+            expr.depth = distance;
+        } else {
+            expr.upvalue = upvalue;
+        }
         return null;
     }
 
-    private void resolveLocal(Expr expr, Token name) {
+    /**
+     * Returns LOCAL and sets distance if the name is declared in the current
+     * function, else returns the index it is captured at, or GLOBAL if it
+     * is not declared in any scope (globals are looked up by slot instead).
+     */
+    private int resolveLocal(String name) {
         for (int i = scopes.size() - 1; i >= 0; i--) {
             var scope = scopes.get(i);
-            if (scope.containsKey(name.lexeme)) {
-                scope.get(name.lexeme).markUsed();
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-                return;
+            if (scope.containsKey(name)) {
+                scope.get(name).markUsed();
+                if (function == null || i >= function.base) {
+                    distance = scopes.size() - 1 - i;
+                    return LOCAL;
+                }
+                return capture(function, name, i);
             }
         }
+        return GLOBAL;
+    }
+
+    // captures the variable declared in scopes[scope] in every function between it and this one
+    private int capture(FunctionScope function, String name, int scope) {
+        FunctionScope enclosing = function.enclosing;
+        Capture capture;
+        if (enclosing == null || scope >= enclosing.base) {
+            capture = new Capture(name, true, function.base - 1 - scope);
+        } else {
+            capture = new Capture(name, false, capture(enclosing, name, scope));
+        }
+        for (int i = 0; i < function.captures.size(); i++) {
+            Capture existing = function.captures.get(i);
+            if (existing.isLocal == capture.isLocal && existing.index == capture.index && existing.name.equals(name)) {
+                return i;
+            }
+        }
+        function.captures.add(capture);
+        return function.captures.size() - 1;
     }
 
     @Override
@@ -301,7 +410,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         define(stmt.name);
 
         if (stmt.superclass != null && stmt.superclass.name.lexeme.equals(stmt.name.lexeme)) {
-            Lox.error(stmt.superclass.name, "A class can't inherit from itself.");
+            reporter.error(stmt.superclass.name, "A class can't inherit from itself.");
         }
 
         if (stmt.superclass != null) {
@@ -346,25 +455,43 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitIndexExpr(Index expr) {
+        resolve(expr.object);
+        resolve(expr.index);
+        return null;
+    }
+
+    @Override
+    public Void visitSetIndexExpr(SetIndex expr) {
+        resolve(expr.object);
+        resolve(expr.index);
+        resolve(expr.value);
+        return null;
+    }
+
     @Override
     public Void visitThisExpr(This expr) {
         if (currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword, "Can't use 'this' outside of a class.");
+            reporter.error(expr.keyword, "Can't use 'this' outside of a class.");
             return null;
         }
-        resolveLocal(expr, expr.keyword);
+        expr.upvalue = resolveLocal("this");
         return null;
     }
 
     @Override
     public Void visitSuperExpr(Super expr) {
         if (currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword, "Can't use super aoutside a class.");
+            reporter.error(expr.keyword, "Can't use super aoutside a class.");
         }
         if (currentClass != ClassType.SUBCLASS) {
-            Lox.error(expr.keyword, "Can only use super inside a subclass.");
+            reporter.error(expr.keyword, "Can only use super inside a subclass.");
+            return null;
         }
-        resolveLocal(expr, expr.keyword);
+        // both always live outside the method, so they are captures
+        expr.upvalue = resolveLocal("super");
+        expr.thisUpvalue = resolveLocal("this");
         return null;
     }
     
@@ -6,5 +6,6 @@ class Return extends RuntimeException {
     Return(Object value) {
         super(null, null, false, false);
         this.value = value;
+        if (LoxMetrics.ENABLED) LoxMetrics.CONTROL_FLOW.increment();
     }
 }
@@ -1,10 +1,85 @@
 package com.light.jlox;
 
+import java.util.Arrays;
+
+/**
+ * An error in a running Lox program. It carries no JVM stack trace, which
+ * is costly to fill in under deep recursion and says nothing about the
+ * script; instead each Lox function it passes through on its way out adds
+ * itself, so the error ends up with the Lox call stack at the time it was
+ * raised, innermost call first.
+ */
 class RuntimeError extends RuntimeException {
+    // identical frames in a row (deep recursion) are printed once
+    private static final int PRINTED_FRAMES = 32;
+    static final int UNKNOWN_LINE = -1;
+
     final Token token;
 
+    private String[] functions = new String[0];
+    // the line each function was called from
+    private int[] lines = new int[0];
+    private int frames = 0;
+
     RuntimeError(Token token, String message) {
-        super(message);
+        super(message, null, false, false);
         this.token = token;
     }
+
+    /** Records that the error is leaving a call to the function made on the given line. */
+    void addFrame(Object function, int line) {
+        record(LoxProfiler.name(function) + "()", line);
+    }
+
+    /** Records that the error is leaving the top level of a module imported on the given line. */
+    void addModule(String file, int line) {
+        record(LoxModules.display(file), line);
+    }
+
+    private void record(String frame, int line) {
+        if (frames == functions.length) {
+            functions = Arrays.copyOf(functions, Math.max(8, frames * 2));
+            lines = Arrays.copyOf(lines, functions.length);
+        }
+        functions[frames] = frame;
+        lines[frames] = line;
+        frames++;
+    }
+
+    /** Fills in the line a native was called from, for the callback it left through. */
+    void callSite(int line) {
+        if (frames > 0 && lines[frames - 1] == UNKNOWN_LINE) lines[frames - 1] = line;
+    }
+
+    /**
+     * One "[line N] in function()" or "[line N] in module.lox" line per
+     * frame, ending with the script, or for a fiber that was never joined,
+     * which has no call site to end with, with the fiber's function.
+     */
+    String traceback() {
+        StringBuilder builder = new StringBuilder();
+        int printed = 0;
+        int i = 0;
+        while (i < frames && printed < PRINTED_FRAMES) {
+            int repeats = 1;
+            while (i + repeats < frames && lineIn(i + repeats) == lineIn(i)
+                    && functions[i + repeats].equals(functions[i])) {
+                repeats++;
+            }
+            builder.append("[line ").append(lineIn(i)).append("] in ").append(functions[i]);
+            if (repeats > 1) builder.append(" (repeated ").append(repeats).append(" times)");
+            builder.append('\n');
+            i += repeats;
+            printed++;
+        }
+        if (i < frames) builder.append("... ").append(frames - i).append(" more calls\n");
+        if (frames > 0 && lineIn(frames) == UNKNOWN_LINE) return builder.append("in a fiber never joined").toString();
+        return builder.append("[line ").append(lineIn(frames)).append("] in script").toString();
+    }
+
+    // the line frame i was at: where the error was raised, or where it made the next call
+    private int lineIn(int frame) {
+        if (frame > 0) return lines[frame - 1];
+        return token == null ? 0 : token.line;
+    }
 }
@@ -9,11 +9,17 @@ import java.util.Map;
 
 class Scanner {
     private final String source;
+    private final ErrorReporter reporter;
     private final List<Token> tokens = new ArrayList<>();
+    // one string per distinct lexeme, shared by all its tokens, which the
+    // flat form keeps for as long as the script lives
+    private final Map<String, String> lexemes = new HashMap<>();
 
     private int start = 0;
     private int current = 0;
     private int line = 1;
+    private int lineStart = 0;
+    private int column = 1;
 
     private static final Map<String, TokenType> keywords;
 
@@ -27,6 +33,7 @@ class Scanner {
         keywords.put("for", FOR);
         keywords.put("fun", FUN);
         keywords.put("if", IF);
+        keywords.put("import", IMPORT);
         keywords.put("nil", NIL);
         keywords.put("or", OR);
         keywords.put("print", PRINT);
@@ -38,13 +45,15 @@ class Scanner {
         keywords.put("while", WHILE);
     }
 
-    Scanner(String source) {
+    Scanner(String source, ErrorReporter reporter) {
         this.source = source;
+        this.reporter = reporter;
     }
 
     List<Token> scanTokens() {
         while(!isAtEnd()) {
             start = current;
+            column = start - lineStart + 1;
             scanToken();
         }
         tokens.add(new Token(EOF, "", null, line));
@@ -62,6 +71,8 @@ class Scanner {
             case ')': addToken(RIGHT_PAREN); break;
             case '{': addToken(LEFT_BRACE); break;
             case '}': addToken(RIGHT_BRACE); break;
+            case '[': addToken(LEFT_BRACKET); break;
+            case ']': addToken(RIGHT_BRACKET); break;
             case ',': addToken(COMMA); break;
             case '.': addToken(DOT); break;
             case '-': addToken(MINUS); break;
@@ -100,6 +111,7 @@ class Scanner {
             
             case '\n':
                 line++;
+                lineStart = current;
                 break;
             
             case '"':
@@ -112,7 +124,7 @@ class Scanner {
                 } else if(isAlpha(c)) {
                     identifier();
                 } else {
-                    Lox.error(line, "Unexpected character");
+                    reporter.error(line, "Unexpected character");
                 }
                 break;
         }
@@ -120,12 +132,15 @@ class Scanner {
 
     private void string() {
         while (peek() != '"' && !isAtEnd()) {
-            if (peek() == '\n') line++;
+            if (peek() == '\n') {
+                line++;
+                lineStart = current + 1;
+            }
             advance();
         }
         
         if (isAtEnd()) {
-            Lox.error(line, "Unterminated string");
+            reporter.error(line, "Unterminated string");
             return;
         }
 
@@ -144,7 +159,7 @@ class Scanner {
             while(isDigit(peek())) advance();
         }
 
-        addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
+        addToken(NUMBER, LoxValues.number(Double.parseDouble(source.substring(start, current))));
     }
 
     private void identifier() {
@@ -205,7 +220,7 @@ class Scanner {
     }
 
     private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+        String text = lexemes.computeIfAbsent(source.substring(start, current), lexeme -> lexeme);
+        tokens.add(new Token(type, text, literal, line, column));
     }
 }
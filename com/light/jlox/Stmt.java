@@ -10,6 +10,7 @@ abstract class Stmt {
         R visitExpressionStmt(Expression stmt);
         R visitFunctionStmt(Function stmt);
         R visitIfStmt(If stmt);
+        R visitImportStmt(Import stmt);
         R visitPrintStmt(Print stmt);
         R visitReturnStmt(Return stmt);
         R visitVarStmt(Var stmt);
@@ -68,6 +69,8 @@ abstract class Stmt {
         final Token name;
         final List<Token> params;
         final List<Stmt> body;
+        Resolver.Capture[] captures;
+        LoxScript script;
         Function(Token name, List<Token> params, List<Stmt> body) {
             this.name = name;
             this.params = params;
@@ -83,6 +86,7 @@ abstract class Stmt {
         final Expr condition;
         final Stmt thenBranch;
         final Stmt elseBranch;
+        int fused = -1;
         If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
             this.condition = condition;
             this.thenBranch = thenBranch;
@@ -94,9 +98,25 @@ abstract class Stmt {
             return visitor.visitIfStmt(this);
         }
     }
+    static class Import extends Stmt {
+        final Token keyword;
+        final Token path;
+        String file;
+        Import(Token keyword, Token path) {
+            this.keyword = keyword;
+            this.path = path;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitImportStmt(this);
+        }
+    }
     static class Print extends Stmt {
+        final Token keyword;
         final Expr expression;
-        Print(Expr expression) {
+        Print(Token keyword, Expr expression) {
+            this.keyword = keyword;
             this.expression = expression;
         }
 
@@ -132,9 +152,12 @@ abstract class Stmt {
         }
     }
     static class While extends Stmt {
+        final Token keyword;
         final Expr condition;
         final Stmt body;
-        While(Expr condition, Stmt body) {
+        int fused = -1;
+        While(Token keyword, Expr condition, Stmt body) {
+            this.keyword = keyword;
             this.condition = condition;
             this.body = body;
         }
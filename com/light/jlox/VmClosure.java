@@ -0,0 +1,36 @@
+package com.light.jlox;
+
+import java.util.List;
+
+class VmClosure implements LoxMethod {
+    final VmFunction function;
+    final VmUpvalue[] upvalues;
+    final LoxInstance receiver;
+
+    VmClosure(VmFunction function, VmUpvalue[] upvalues, LoxInstance receiver) {
+        this.function = function;
+        this.upvalues = upvalues;
+        this.receiver = receiver;
+    }
+
+    @Override
+    public int arity() {
+        return function.arity;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        return ((VmInterpreter)interpreter).invoke(this, arguments);
+    }
+
+    @Override
+    public VmClosure bind(LoxInstance instance) {
+        if (LoxMetrics.ENABLED) LoxMetrics.BINDS.increment();
+        return new VmClosure(function, upvalues, instance);
+    }
+
+    @Override
+    public String toString() {
+        return function.toString();
+    }
+}
@@ -0,0 +1,583 @@
+package com.light.jlox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.light.jlox.Expr.Assign;
+import com.light.jlox.Expr.Binary;
+import com.light.jlox.Expr.Call;
+import com.light.jlox.Expr.Get;
+import com.light.jlox.Expr.Grouping;
+import com.light.jlox.Expr.Index;
+import com.light.jlox.Expr.Literal;
+import com.light.jlox.Expr.Logical;
+import com.light.jlox.Expr.Set;
+import com.light.jlox.Expr.SetIndex;
+import com.light.jlox.Expr.Super;
+import com.light.jlox.Expr.This;
+import com.light.jlox.Expr.Unary;
+import com.light.jlox.Expr.Variable;
+import com.light.jlox.Stmt.Block;
+import com.light.jlox.Stmt.Break;
+import com.light.jlox.Stmt.Class;
+import com.light.jlox.Stmt.Expression;
+import com.light.jlox.Stmt.Function;
+import com.light.jlox.Stmt.If;
+import com.light.jlox.Stmt.Import;
+import com.light.jlox.Stmt.Print;
+import com.light.jlox.Stmt.Return;
+import com.light.jlox.Stmt.Var;
+import com.light.jlox.Stmt.While;
+
+/**
+ * Compiles a resolved AST into VmFunctions. Locals get fixed stack slots,
+ * captured locals become upvalues, and anything declared at the top level
+ * of the script is a global. Static errors were already reported by the
+ * Resolver, so this pass assumes a well-formed program.
+ */
+class VmCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+    private enum FunctionType {
+        SCRIPT,
+        FUNCTION,
+        METHOD,
+        INITIALIZER
+    }
+
+    private static class Local {
+        final String name;
+        final int depth;
+        boolean isCaptured = false;
+
+        Local(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    private static class Loop {
+        final int scopeDepth;
+        final List<Integer> breaks = new ArrayList<>();
+
+        Loop(int scopeDepth) {
+            this.scopeDepth = scopeDepth;
+        }
+    }
+
+    private static class FunctionState {
+        final FunctionState enclosing;
+        final FunctionType type;
+        final Token name;
+        final int arity;
+
+        int[] code = new int[64];
+        int size = 0;
+        final List<Object> constants = new ArrayList<>();
+        final List<Local> locals = new ArrayList<>();
+        final List<Integer> upvalueIndexes = new ArrayList<>();
+        final List<Boolean> upvalueIsLocal = new ArrayList<>();
+        int scopeDepth = 0;
+        Loop loop = null;
+
+        FunctionState(FunctionState enclosing, FunctionType type, Token name, int arity) {
+            this.enclosing = enclosing;
+            this.type = type;
+            this.name = name;
+            this.arity = arity;
+            // slot 0 holds the callee, or the receiver for methods
+            boolean isMethod = type == FunctionType.METHOD || type == FunctionType.INITIALIZER;
+            locals.add(new Local(isMethod ? "this" : "", 0));
+        }
+    }
+
+    // numbers its globals in its engine's slots, see Globals
+    private final LoxScript script;
+    private FunctionState current;
+
+    VmCompiler(LoxScript script) {
+        this.script = script;
+    }
+
+    VmFunction compile(List<Stmt> statements) {
+        current = new FunctionState(null, FunctionType.SCRIPT, new Token(TokenType.IDENTIFIER, "script", null, 0), 0);
+        for (Stmt statement : statements) {
+            compile(statement);
+        }
+        emit(VmOp.NIL);
+        emit(VmOp.RETURN);
+        return end();
+    }
+
+    private VmFunction end() {
+        FunctionState state = current;
+        current = state.enclosing;
+
+        int[] upvalueIndexes = new int[state.upvalueIndexes.size()];
+        boolean[] upvalueIsLocal = new boolean[state.upvalueIsLocal.size()];
+        for (int i = 0; i < upvalueIndexes.length; i++) {
+            upvalueIndexes[i] = state.upvalueIndexes.get(i);
+            upvalueIsLocal[i] = state.upvalueIsLocal.get(i);
+        }
+        return new VmFunction(state.name, state.arity, Arrays.copyOf(state.code, state.size),
+            state.constants.toArray(), upvalueIndexes, upvalueIsLocal, script);
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void emit(int... words) {
+        for (int word : words) {
+            if (current.size == current.code.length) {
+                current.code = Arrays.copyOf(current.code, current.size * 2);
+            }
+            current.code[current.size++] = word;
+        }
+    }
+
+    private int emitJump(int op) {
+        emit(op, -1);
+        return current.size - 1;
+    }
+
+    private void patchJump(int operand) {
+        current.code[operand] = current.size;
+    }
+
+    private int constant(Object value) {
+        current.constants.add(value);
+        return current.constants.size() - 1;
+    }
+
+    private void beginScope() {
+        current.scopeDepth++;
+    }
+
+    private void endScope() {
+        current.scopeDepth--;
+        List<Local> locals = current.locals;
+        while (!locals.isEmpty() && locals.get(locals.size() - 1).depth > current.scopeDepth) {
+            emit(locals.get(locals.size() - 1).isCaptured ? VmOp.CLOSE_UPVALUE : VmOp.POP);
+            locals.remove(locals.size() - 1);
+        }
+    }
+
+    private boolean isGlobalScope() {
+        return current.type == FunctionType.SCRIPT && current.scopeDepth == 0;
+    }
+
+    private void addLocal(String name) {
+        current.locals.add(new Local(name, current.scopeDepth));
+    }
+
+    private static int resolveLocal(FunctionState state, String name) {
+        for (int i = state.locals.size() - 1; i >= 0; i--) {
+            if (state.locals.get(i).name.equals(name)) return i;
+        }
+        return -1;
+    }
+
+    private static int resolveUpvalue(FunctionState state, String name) {
+        if (state.enclosing == null) return -1;
+
+        int local = resolveLocal(state.enclosing, name);
+        if (local != -1) {
+            state.enclosing.locals.get(local).isCaptured = true;
+            return addUpvalue(state, local, true);
+        }
+
+        int upvalue = resolveUpvalue(state.enclosing, name);
+        if (upvalue != -1) return addUpvalue(state, upvalue, false);
+
+        return -1;
+    }
+
+    private static int addUpvalue(FunctionState state, int index, boolean isLocal) {
+        for (int i = 0; i < state.upvalueIndexes.size(); i++) {
+            if (state.upvalueIndexes.get(i) == index && state.upvalueIsLocal.get(i) == isLocal) return i;
+        }
+        state.upvalueIndexes.add(index);
+        state.upvalueIsLocal.add(isLocal);
+        return state.upvalueIndexes.size() - 1;
+    }
+
+    private void getVariable(Token name) {
+        int slot = resolveLocal(current, name.lexeme);
+        if (slot != -1) {
+            emit(VmOp.GET_LOCAL, slot);
+            return;
+        }
+        int upvalue = resolveUpvalue(current, name.lexeme);
+        if (upvalue != -1) {
+            emit(VmOp.GET_UPVALUE, upvalue);
+            return;
+        }
+        emit(VmOp.GET_GLOBAL, script.slots.slot(name.lexeme), constant(name));
+    }
+
+    private void setVariable(Token name) {
+        int slot = resolveLocal(current, name.lexeme);
+        if (slot != -1) {
+            emit(VmOp.SET_LOCAL, slot);
+            return;
+        }
+        int upvalue = resolveUpvalue(current, name.lexeme);
+        if (upvalue != -1) {
+            emit(VmOp.SET_UPVALUE, upvalue);
+            return;
+        }
+        emit(VmOp.SET_GLOBAL, script.slots.slot(name.lexeme), constant(name));
+    }
+
+    // the value to bind is on top of the stack
+    private void defineVariable(Token name) {
+        if (isGlobalScope()) {
+            emit(VmOp.DEFINE_GLOBAL, script.slots.slot(name.lexeme));
+        } else {
+            addLocal(name.lexeme);
+        }
+    }
+
+    private void function(Function stmt, FunctionType type) {
+        current = new FunctionState(current, type, stmt.name, stmt.params.size());
+        beginScope();
+        for (Token param : stmt.params) {
+            addLocal(param.lexeme);
+        }
+        for (Stmt statement : stmt.body) {
+            compile(statement);
+        }
+        emitReturn();
+        VmFunction function = end();
+        emit(VmOp.CLOSURE, constant(function));
+    }
+
+    private void emitReturn() {
+        if (current.type == FunctionType.INITIALIZER) {
+            emit(VmOp.GET_LOCAL, 0);
+        } else {
+            emit(VmOp.NIL);
+        }
+        emit(VmOp.RETURN);
+    }
+
+    @Override
+    public Void visitBlockStmt(Block stmt) {
+        beginScope();
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Break stmt) {
+        List<Local> locals = current.locals;
+        for (int i = locals.size() - 1; i >= 0 && locals.get(i).depth > current.loop.scopeDepth; i--) {
+            emit(locals.get(i).isCaptured ? VmOp.CLOSE_UPVALUE : VmOp.POP);
+        }
+        current.loop.breaks.add(emitJump(VmOp.JUMP));
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Class stmt) {
+        emit(VmOp.NIL);
+        defineVariable(stmt.name);
+
+        if (stmt.superclass != null) {
+            compile(stmt.superclass);
+            beginScope();
+            addLocal("super");
+        }
+
+        for (Function method : stmt.methods) {
+            function(method, method.name.lexeme.equals("init") ? FunctionType.INITIALIZER : FunctionType.METHOD);
+        }
+        int superclass = stmt.superclass != null ? constant(stmt.superclass.name) : -1;
+        emit(VmOp.CLASS, constant(stmt.name), stmt.methods.size(), superclass);
+
+        setVariable(stmt.name);
+        emit(VmOp.POP);
+
+        if (stmt.superclass != null) endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Expression stmt) {
+        compile(stmt.expression);
+        emit(VmOp.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Function stmt) {
+        if (isGlobalScope()) {
+            function(stmt, FunctionType.FUNCTION);
+            emit(VmOp.DEFINE_GLOBAL, script.slots.slot(stmt.name.lexeme));
+        } else {
+            // declared first so the body can refer to itself
+            addLocal(stmt.name.lexeme);
+            function(stmt, FunctionType.FUNCTION);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitImportStmt(Import stmt) {
+        emit(VmOp.IMPORT, constant(stmt.file), constant(stmt.keyword));
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(If stmt) {
+        boolean fused = stmt.fused == Lowering.COMPARE_AND_BRANCH;
+        int thenJump = conditionJump(stmt.condition, fused);
+        if (!fused) emit(VmOp.POP);
+        compile(stmt.thenBranch);
+        int elseJump = emitJump(VmOp.JUMP);
+        patchJump(thenJump);
+        if (!fused) emit(VmOp.POP);
+        if (stmt.elseBranch != null) compile(stmt.elseBranch);
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Print stmt) {
+        compile(stmt.expression);
+        emit(VmOp.PRINT);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Return stmt) {
+        if (stmt.value == null) {
+            emitReturn();
+        } else {
+            compile(stmt.value);
+            emit(VmOp.RETURN);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Var stmt) {
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            emit(VmOp.NIL);
+        }
+        defineVariable(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(While stmt) {
+        Loop enclosingLoop = current.loop;
+        Loop loop = new Loop(current.scopeDepth);
+        current.loop = loop;
+
+        int start = current.size;
+        boolean fused = stmt.fused == Lowering.COMPARE_AND_BRANCH;
+        int exitJump = conditionJump(stmt.condition, fused);
+        if (!fused) emit(VmOp.POP);
+        compile(stmt.body);
+        emit(VmOp.LOOP, start, constant(stmt.keyword));
+        patchJump(exitJump);
+        if (!fused) emit(VmOp.POP);
+        for (int operand : loop.breaks) {
+            patchJump(operand);
+        }
+
+        current.loop = enclosingLoop;
+        return null;
+    }
+
+    // unless fused, the condition stays on the stack on both paths
+    private int conditionJump(Expr condition, boolean fused) {
+        if (!fused) {
+            compile(condition);
+            return emitJump(VmOp.JUMP_IF_FALSE);
+        }
+        Binary comparison = (Binary)condition;
+        compile(comparison.left);
+        compile(comparison.right);
+        int op;
+        switch (comparison.operator.type) {
+            case GREATER: op = VmOp.GREATER; break;
+            case GREATER_EQUAL: op = VmOp.GREATER_EQUAL; break;
+            case LESS: op = VmOp.LESS; break;
+            default: op = VmOp.LESS_EQUAL; break;
+        }
+        emit(VmOp.COMPARE_JUMP, op, -1, constant(comparison.operator));
+        return current.size - 2;
+    }
+
+    @Override
+    public Void visitAssignExpr(Assign expr) {
+        if (expr.fused == Lowering.INCREMENT) {
+            int slot = resolveLocal(current, expr.name.lexeme);
+            if (slot != -1) {
+                Binary step = (Binary)expr.value;
+                emit(VmOp.INCREMENT_LOCAL, slot, constant(((Literal)step.right).value), constant(step.operator));
+                return null;
+            }
+        }
+        compile(expr.value);
+        setVariable(expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+        emitOperator(expr.operator);
+        return null;
+    }
+
+    private void emitOperator(Token operator) {
+        switch (operator.type) {
+            case EQUAL_EQUAL: emit(VmOp.EQUAL); return;
+            case BANG_EQUAL: emit(VmOp.NOT_EQUAL); return;
+            case GREATER: emit(VmOp.GREATER, constant(operator)); return;
+            case GREATER_EQUAL: emit(VmOp.GREATER_EQUAL, constant(operator)); return;
+            case LESS: emit(VmOp.LESS, constant(operator)); return;
+            case LESS_EQUAL: emit(VmOp.LESS_EQUAL, constant(operator)); return;
+            case PLUS: emit(VmOp.ADD, constant(operator)); return;
+            case MINUS: emit(VmOp.SUBTRACT, constant(operator)); return;
+            case STAR: emit(VmOp.MULTIPLY, constant(operator)); return;
+            case SLASH: emit(VmOp.DIVIDE, constant(operator)); return;
+            default: throw new IllegalStateException("Unexpected binary operator " + operator.type);
+        }
+    }
+
+    @Override
+    public Void visitCallExpr(Call expr) {
+        compile(expr.callee);
+        for (Expr argument : expr.arguments) {
+            compile(argument);
+        }
+        emit(VmOp.CALL, expr.arguments.size(), constant(expr.paren));
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Get expr) {
+        compile(expr.object);
+        emit(VmOp.GET_PROPERTY, constant(expr.name));
+        return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(Index expr) {
+        compile(expr.object);
+        compile(expr.index);
+        emit(VmOp.GET_INDEX, constant(expr.bracket));
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Literal expr) {
+        if (expr.value == null) {
+            emit(VmOp.NIL);
+        } else if (expr.value instanceof Boolean) {
+            emit((boolean)expr.value ? VmOp.TRUE : VmOp.FALSE);
+        } else {
+            emit(VmOp.CONSTANT, constant(expr.value));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Logical expr) {
+        compile(expr.left);
+        if (expr.operator.type == TokenType.OR) {
+            int elseJump = emitJump(VmOp.JUMP_IF_FALSE);
+            int endJump = emitJump(VmOp.JUMP);
+            patchJump(elseJump);
+            emit(VmOp.POP);
+            compile(expr.right);
+            patchJump(endJump);
+        } else {
+            int endJump = emitJump(VmOp.JUMP_IF_FALSE);
+            emit(VmOp.POP);
+            compile(expr.right);
+            patchJump(endJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Set expr) {
+        compile(expr.object);
+        // like the interpreters, fail on the target before running the value,
+        // and with the set's error when the value starts by reading a field
+        emit(VmOp.CHECK_INSTANCE, constant(expr.name));
+        if (expr.fused == Lowering.GET_ADD_SET) {
+            Binary update = (Binary)expr.value;
+            emit(VmOp.GET_PROPERTY_KEEP, constant(((Get)update.left).name));
+            compile(update.right);
+            emitOperator(update.operator);
+            emit(VmOp.SET_PROPERTY, constant(expr.name));
+            return null;
+        }
+        compile(expr.value);
+        emit(VmOp.SET_PROPERTY, constant(expr.name));
+        return null;
+    }
+
+    @Override
+    public Void visitSetIndexExpr(SetIndex expr) {
+        compile(expr.object);
+        compile(expr.index);
+        compile(expr.value);
+        emit(VmOp.SET_INDEX, constant(expr.bracket));
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Super expr) {
+        getVariable(new Token(TokenType.THIS, "this", null, expr.keyword.line));
+        getVariable(expr.keyword);
+        emit(VmOp.GET_SUPER, constant(expr.method));
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(This expr) {
+        getVariable(expr.keyword);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Unary expr) {
+        compile(expr.right);
+        if (expr.operator.type == TokenType.MINUS) {
+            emit(VmOp.NEGATE, constant(expr.operator));
+        } else {
+            emit(VmOp.NOT);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Variable expr) {
+        getVariable(expr.name);
+        return null;
+    }
+}
@@ -0,0 +1,32 @@
+package com.light.jlox;
+
+/**
+ * Compiled body of a Lox function. Immutable once built; closures over it
+ * are created at runtime by the CLOSURE instruction.
+ */
+final class VmFunction {
+    final Token name;
+    final int arity;
+    final int[] code;
+    final Object[] constants;
+    final int[] upvalueIndexes;
+    final boolean[] upvalueIsLocal;
+    // the script compiled, for snapshots
+    final LoxScript script;
+
+    VmFunction(Token name, int arity, int[] code, Object[] constants,
+            int[] upvalueIndexes, boolean[] upvalueIsLocal, LoxScript script) {
+        this.name = name;
+        this.arity = arity;
+        this.code = code;
+        this.constants = constants;
+        this.upvalueIndexes = upvalueIndexes;
+        this.upvalueIsLocal = upvalueIsLocal;
+        this.script = script;
+    }
+
+    @Override
+    public String toString() {
+        return "<fn " + name.lexeme + ">";
+    }
+}
@@ -0,0 +1,668 @@
+package com.light.jlox;
+
+import static com.light.jlox.NanBox.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bytecode VM over a NaN-boxed operand stack. Each stack slot is a long
+ * holding either a double or a tag; object references are kept in the
+ * parallel refs array at the same index. Locals live in fixed slots of the
+ * caller's frame, so arithmetic on local numbers allocates nothing.
+ *
+ * Globals, instance fields and native calls still exchange boxed Objects
+ * with the rest of the interpreter. An open upvalue belongs to the VM whose
+ * stack holds the slot; a fiber reading it goes to that stack directly and
+ * without synchronization, so captured locals of a still running frame are
+ * not a safe way to share state between fibers.
+ */
+class VmInterpreter extends Interpreter {
+    private static final int FRAMES_MAX = 10000;
+
+    private static final class Frame {
+        VmClosure closure;
+        // what the call named, for tracebacks and profiles: the closure, or
+        // the class whose initializer this is
+        Object callee;
+        int ip;
+        int base;
+        LoxEvents.Call event;
+    }
+
+    private long[] stack = new long[256];
+    private Object[] refs = new Object[256];
+    private int sp = 0;
+
+    private Frame[] frames = new Frame[64];
+    private int frameCount = 0;
+
+    private VmUpvalue openUpvalues = null;
+
+    private long resultBits;
+    private Object resultRef;
+
+    VmInterpreter(LoxOutput output, Globals.Slots slots) {
+        super(output, slots);
+    }
+
+    private VmInterpreter(LoxOutput output, Globals globals) {
+        super(output, globals);
+    }
+
+    @Override
+    Interpreter fork() {
+        return inherit(new VmInterpreter(output, globals));
+    }
+
+    // frames are calls too, except the entry frame of the script or a fiber,
+    // which the tree engine runs without one
+    @Override
+    int callDepth() {
+        return super.callDepth() + frameCount - 1;
+    }
+
+    @Override
+    void interpret(LoxScript script) {
+        try {
+            invoke(new VmClosure(script.compiled(), new VmUpvalue[0], null), new ArrayList<>());
+        } catch (RuntimeError e) {
+            closeUpvalues(0);
+            Arrays.fill(refs, 0, sp, null);
+            sp = 0;
+            frameCount = 0;
+            throw e;
+        }
+    }
+
+    @Override
+    void runModule(LoxScript module) {
+        invoke(new VmClosure(module.compiled(), new VmUpvalue[0], null), new ArrayList<>());
+    }
+
+    Object invoke(VmClosure closure, List<Object> arguments) {
+        int exitDepth = frameCount;
+        push(OBJECT, closure);
+        for (Object argument : arguments) {
+            push(argument);
+        }
+        pushFrame(closure, closure, arguments.size(), closure.function.name);
+        run(exitDepth);
+        return box(resultBits, resultRef);
+    }
+
+    private void push(long bits, Object ref) {
+        if (sp == stack.length) {
+            stack = Arrays.copyOf(stack, sp * 2);
+            refs = Arrays.copyOf(refs, sp * 2);
+        }
+        stack[sp] = bits;
+        refs[sp] = ref;
+        sp++;
+    }
+
+    private void push(Object value) {
+        if (value == null) {
+            push(NIL, null);
+        } else if (value instanceof Boolean) {
+            push(bool((boolean)value), null);
+        } else if (value instanceof Double) {
+            push(number((double)value), null);
+        } else {
+            push(OBJECT, value);
+        }
+    }
+
+    private void pop(int count) {
+        for (int i = 0; i < count; i++) {
+            refs[--sp] = null;
+        }
+    }
+
+    private static Object box(long bits, Object ref) {
+        if (isNumber(bits)) return LoxValues.number(asNumber(bits));
+        if (bits == NIL) return null;
+        if (bits == TRUE) return Boolean.TRUE;
+        if (bits == FALSE) return Boolean.FALSE;
+        return ref;
+    }
+
+    /** The value an upvalue holds, whether it is still open or not. */
+    static Object valueOf(VmUpvalue upvalue) {
+        if (upvalue.closed) return box(upvalue.bits, upvalue.ref);
+        return box(upvalue.owner.stack[upvalue.slot], upvalue.owner.refs[upvalue.slot]);
+    }
+
+    /** A closed upvalue belonging to no stack, for a snapshot being restored. */
+    static VmUpvalue closedUpvalue() {
+        VmUpvalue upvalue = new VmUpvalue(null, -1, null);
+        upvalue.closed = true;
+        return upvalue;
+    }
+
+    static void close(VmUpvalue upvalue, Object value) {
+        upvalue.ref = null;
+        if (value == null) {
+            upvalue.bits = NIL;
+        } else if (value instanceof Boolean) {
+            upvalue.bits = bool((boolean)value);
+        } else if (value instanceof Double) {
+            upvalue.bits = number((double)value);
+        } else {
+            upvalue.bits = OBJECT;
+            upvalue.ref = value;
+        }
+    }
+
+    private Object peek(int distance) {
+        return box(stack[sp - 1 - distance], refs[sp - 1 - distance]);
+    }
+
+    private void pushFrame(VmClosure closure, Object callee, int argumentCount, Token token) {
+        if (argumentCount != closure.function.arity) {
+            throw new RuntimeError(token, "Expected " + closure.function.arity + " arguments but got " + argumentCount + ".");
+        }
+        if (frameCount == FRAMES_MAX) {
+            throw new RuntimeError(token, "Stack overflow.");
+        }
+        if (budget != null) budget.call(token, callDepth());
+        // the outermost frame is the script or a fiber's entry, like in the tree engine
+        if (shadow != null && frameCount > 0) shadow.push(callee, token.line);
+        if (frameCount == frames.length) {
+            frames = Arrays.copyOf(frames, frameCount * 2);
+        }
+        if (frames[frameCount] == null) frames[frameCount] = new Frame();
+
+        Frame frame = frames[frameCount++];
+        frame.closure = closure;
+        frame.callee = callee;
+        frame.ip = 0;
+        frame.base = sp - argumentCount - 1;
+        if (LoxEvents.ENABLED) frame.event = LoxEvents.beginCall(token.line);
+        if (LoxMetrics.ENABLED) LoxMetrics.CALLS.increment();
+        if (closure.receiver != null) {
+            stack[frame.base] = OBJECT;
+            refs[frame.base] = closure.receiver;
+        }
+    }
+
+    /**
+     * Calls anything but a closure in the slot under the arguments, replacing
+     * it with the result. An initializer gets a frame of its own; natives go
+     * through Interpreter.call.
+     */
+    private void callValue(Object callee, int argumentCount, Token paren) {
+        int slot = sp - 1 - argumentCount;
+        if (callee instanceof LoxClass) {
+            // the instance takes the class's slot, where the initializer finds this
+            LoxClass klass = (LoxClass)callee;
+            VmClosure initializer = (VmClosure)klass.getInitializer();
+            LoxInstance instance = klass.instantiate(this, paren);
+            refs[slot] = instance;
+            if (initializer != null) {
+                pushFrame(initializer, klass, argumentCount, paren);
+                return;
+            }
+            if (argumentCount != 0) {
+                throw new RuntimeError(paren, "Expected 0 arguments but got " + argumentCount + ".");
+            }
+            if (budget != null) budget.call(paren, callDepth());
+            if (LoxMetrics.ENABLED) LoxMetrics.CALLS.increment();
+        } else {
+            List<Object> arguments = new ArrayList<>(argumentCount);
+            for (int i = argumentCount - 1; i >= 0; i--) {
+                arguments.add(peek(i));
+            }
+            Object result = call(paren, callee, arguments);
+            pop(argumentCount + 1);
+            push(result);
+        }
+    }
+
+    private VmUpvalue captureUpvalue(int slot) {
+        VmUpvalue previous = null;
+        VmUpvalue upvalue = openUpvalues;
+        while (upvalue != null && upvalue.slot > slot) {
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+        if (upvalue != null && upvalue.slot == slot) return upvalue;
+
+        VmUpvalue created = new VmUpvalue(this, slot, upvalue);
+        if (previous == null) {
+            openUpvalues = created;
+        } else {
+            previous.next = created;
+        }
+        return created;
+    }
+
+    private void closeUpvalues(int last) {
+        while (openUpvalues != null && openUpvalues.slot >= last) {
+            VmUpvalue upvalue = openUpvalues;
+            upvalue.bits = stack[upvalue.slot];
+            upvalue.ref = refs[upvalue.slot];
+            upvalue.closed = true;
+            openUpvalues = upvalue.next;
+        }
+    }
+
+    private RuntimeError numberOperands(Token operator) {
+        return new RuntimeError(operator, "Operands must be numbers.");
+    }
+
+    // strings, ropes and errors go through the shared tree semantics
+    private void slowBinary(Token operator) {
+        Object right = peek(0);
+        Object left = peek(1);
+        Object result = binary(operator, left, right);
+        pop(2);
+        push(result);
+    }
+
+    private void run(int exitDepth) {
+        try {
+            dispatch(exitDepth);
+        } catch (RuntimeError e) {
+            // the frame at exitDepth was entered through invoke, whose caller records it
+            for (int i = frameCount - 1; i > exitDepth; i--) {
+                Frame caller = frames[i - 1];
+                VmFunction function = caller.closure.function;
+                e.addFrame(frames[i].callee, ((Token)function.constants[function.code[caller.ip - 1]]).line);
+            }
+            frameCount = exitDepth;
+            throw e;
+        }
+    }
+
+    private void dispatch(int exitDepth) {
+        Frame frame = frames[frameCount - 1];
+        VmFunction function = frame.closure.function;
+        int[] code = function.code;
+        Object[] constants = function.constants;
+        int ip = frame.ip;
+        int base = frame.base;
+
+        for (;;) {
+            switch (code[ip++]) {
+                case VmOp.CONSTANT:
+                    push(constants[code[ip++]]);
+                    break;
+                case VmOp.NIL:
+                    push(NIL, null);
+                    break;
+                case VmOp.TRUE:
+                    push(TRUE, null);
+                    break;
+                case VmOp.FALSE:
+                    push(FALSE, null);
+                    break;
+                case VmOp.POP:
+                    refs[--sp] = null;
+                    break;
+                case VmOp.GET_LOCAL: {
+                    int slot = base + code[ip++];
+                    push(stack[slot], refs[slot]);
+                    break;
+                }
+                case VmOp.SET_LOCAL: {
+                    int slot = base + code[ip++];
+                    stack[slot] = stack[sp - 1];
+                    refs[slot] = refs[sp - 1];
+                    break;
+                }
+                case VmOp.GET_GLOBAL: {
+                    int slot = code[ip++];
+                    push(globals.get(slot, (Token)constants[code[ip++]]));
+                    break;
+                }
+                case VmOp.DEFINE_GLOBAL:
+                    globals.define(code[ip++], peek(0));
+                    pop(1);
+                    break;
+                case VmOp.SET_GLOBAL: {
+                    int slot = code[ip++];
+                    globals.assign(slot, (Token)constants[code[ip++]], peek(0));
+                    break;
+                }
+                case VmOp.GET_UPVALUE: {
+                    VmUpvalue upvalue = frame.closure.upvalues[code[ip++]];
+                    if (upvalue.closed) {
+                        push(upvalue.bits, upvalue.ref);
+                    } else {
+                        push(upvalue.owner.stack[upvalue.slot], upvalue.owner.refs[upvalue.slot]);
+                    }
+                    break;
+                }
+                case VmOp.SET_UPVALUE: {
+                    VmUpvalue upvalue = frame.closure.upvalues[code[ip++]];
+                    if (upvalue.closed) {
+                        upvalue.bits = stack[sp - 1];
+                        upvalue.ref = refs[sp - 1];
+                    } else {
+                        upvalue.owner.stack[upvalue.slot] = stack[sp - 1];
+                        upvalue.owner.refs[upvalue.slot] = refs[sp - 1];
+                    }
+                    break;
+                }
+                case VmOp.GET_PROPERTY: {
+                    Object value = getProperty((Token)constants[code[ip++]], peek(0));
+                    pop(1);
+                    push(value);
+                    break;
+                }
+                case VmOp.GET_PROPERTY_KEEP:
+                    push(getProperty((Token)constants[code[ip++]], peek(0)));
+                    break;
+                case VmOp.CHECK_INSTANCE: {
+                    Token name = (Token)constants[code[ip++]];
+                    if (!(peek(0) instanceof LoxInstance)) {
+                        throw new RuntimeError(name, "Only instances have fields");
+                    }
+                    break;
+                }
+                case VmOp.SET_PROPERTY: {
+                    // CHECK_INSTANCE ran on the target
+                    ((LoxInstance)peek(1)).set((Token)constants[code[ip++]], peek(0));
+                    stack[sp - 2] = stack[sp - 1];
+                    refs[sp - 2] = refs[sp - 1];
+                    pop(1);
+                    break;
+                }
+                case VmOp.GET_INDEX: {
+                    Token bracket = (Token)constants[code[ip++]];
+                    Object object = refs[sp - 2];
+                    long index = stack[sp - 1];
+                    // numbers in a numeric list go from double[] to the stack unboxed
+                    if (object instanceof LoxList && isNumber(index)) {
+                        LoxList list = (LoxList)object;
+                        int position = LoxCollections.index(bracket, list, asNumber(index));
+                        pop(2);
+                        if (!globals.concurrent && list.isNumeric()) {
+                            push(number(list.getNumber(position)), null);
+                        } else {
+                            push(list.get(position));
+                        }
+                    } else if (object instanceof LoxMap && isNumber(index)) {
+                        pop(2);
+                        push(((LoxMap)object).get(asNumber(index)));
+                    } else {
+                        Object value = getIndex(bracket, peek(1), peek(0));
+                        pop(2);
+                        push(value);
+                    }
+                    break;
+                }
+                case VmOp.SET_INDEX: {
+                    Token bracket = (Token)constants[code[ip++]];
+                    Object object = refs[sp - 3];
+                    long index = stack[sp - 2];
+                    long value = stack[sp - 1];
+                    if (object instanceof LoxList && isNumber(index) && isNumber(value)) {
+                        LoxList list = (LoxList)object;
+                        list.setNumber(LoxCollections.index(bracket, list, asNumber(index)), asNumber(value));
+                    } else {
+                        setIndex(bracket, peek(2), peek(1), peek(0));
+                    }
+                    stack[sp - 3] = stack[sp - 1];
+                    refs[sp - 3] = refs[sp - 1];
+                    pop(2);
+                    break;
+                }
+                case VmOp.GET_SUPER: {
+                    Token method = (Token)constants[code[ip++]];
+                    LoxClass superclass = (LoxClass)refs[sp - 1];
+                    LoxInstance instance = (LoxInstance)refs[sp - 2];
+                    LoxMethod found = superclass.findMethod(method.lexeme);
+                    if (found == null) {
+                        throw new RuntimeError(method, "Undefined property '" + method.lexeme + "'.");
+                    }
+                    pop(2);
+                    push(OBJECT, found.bind(instance));
+                    break;
+                }
+                case VmOp.EQUAL:
+                case VmOp.NOT_EQUAL: {
+                    long right = stack[sp - 1];
+                    long left = stack[sp - 2];
+                    boolean equal;
+                    if (left == OBJECT && right == OBJECT) {
+                        equal = isEqual(refs[sp - 2], refs[sp - 1]);
+                    } else {
+                        // canonical NaN bits give the same answer as Double.equals
+                        equal = left == right;
+                    }
+                    pop(2);
+                    push(bool(code[ip - 1] == VmOp.EQUAL ? equal : !equal), null);
+                    break;
+                }
+                case VmOp.GREATER:
+                case VmOp.GREATER_EQUAL:
+                case VmOp.LESS:
+                case VmOp.LESS_EQUAL: {
+                    int op = code[ip - 1];
+                    Token operator = (Token)constants[code[ip++]];
+                    long right = stack[sp - 1];
+                    long left = stack[sp - 2];
+                    if (!isNumber(left) || !isNumber(right)) throw numberOperands(operator);
+                    double a = asNumber(left);
+                    double b = asNumber(right);
+                    boolean result;
+                    if (op == VmOp.GREATER) result = a > b;
+                    else if (op == VmOp.GREATER_EQUAL) result = a >= b;
+                    else if (op == VmOp.LESS) result = a < b;
+                    else result = a <= b;
+                    sp--;
+                    stack[sp - 1] = bool(result);
+                    break;
+                }
+                case VmOp.ADD: {
+                    long right = stack[sp - 1];
+                    long left = stack[sp - 2];
+                    if (isNumber(left) && isNumber(right)) {
+                        sp--;
+                        stack[sp - 1] = number(asNumber(left) + asNumber(right));
+                        ip++;
+                    } else {
+                        slowBinary((Token)constants[code[ip++]]);
+                    }
+                    break;
+                }
+                case VmOp.SUBTRACT: {
+                    Token operator = (Token)constants[code[ip++]];
+                    long right = stack[sp - 1];
+                    long left = stack[sp - 2];
+                    if (!isNumber(left) || !isNumber(right)) throw numberOperands(operator);
+                    sp--;
+                    stack[sp - 1] = number(asNumber(left) - asNumber(right));
+                    break;
+                }
+                case VmOp.MULTIPLY: {
+                    Token operator = (Token)constants[code[ip++]];
+                    long right = stack[sp - 1];
+                    long left = stack[sp - 2];
+                    if (!isNumber(left) || !isNumber(right)) throw numberOperands(operator);
+                    sp--;
+                    stack[sp - 1] = number(asNumber(left) * asNumber(right));
+                    break;
+                }
+                case VmOp.DIVIDE: {
+                    long right = stack[sp - 1];
+                    long left = stack[sp - 2];
+                    if (isNumber(left) && isNumber(right) && asNumber(right) != 0) {
+                        sp--;
+                        stack[sp - 1] = number(asNumber(left) / asNumber(right));
+                        ip++;
+                    } else {
+                        slowBinary((Token)constants[code[ip++]]);
+                    }
+                    break;
+                }
+                case VmOp.NOT: {
+                    boolean falsey = isFalsey(stack[sp - 1]);
+                    pop(1);
+                    push(bool(falsey), null);
+                    break;
+                }
+                case VmOp.NEGATE: {
+                    Token operator = (Token)constants[code[ip++]];
+                    if (!isNumber(stack[sp - 1])) {
+                        throw new RuntimeError(operator, "Operand must be a number.");
+                    }
+                    stack[sp - 1] = number(-asNumber(stack[sp - 1]));
+                    break;
+                }
+                case VmOp.PRINT:
+                    output.println(peek(0));
+                    pop(1);
+                    break;
+                case VmOp.JUMP:
+                    ip = code[ip];
+                    break;
+                case VmOp.LOOP: {
+                    int target = code[ip++];
+                    Token keyword = (Token)constants[code[ip++]];
+                    if (budget != null) budget.step(keyword);
+                    ip = target;
+                    break;
+                }
+                case VmOp.COMPARE_JUMP: {
+                    int op = code[ip++];
+                    int target = code[ip++];
+                    Token operator = (Token)constants[code[ip++]];
+                    long right = stack[sp - 1];
+                    long left = stack[sp - 2];
+                    if (!isNumber(left) || !isNumber(right)) throw numberOperands(operator);
+                    double a = asNumber(left);
+                    double b = asNumber(right);
+                    boolean result;
+                    if (op == VmOp.GREATER) result = a > b;
+                    else if (op == VmOp.GREATER_EQUAL) result = a >= b;
+                    else if (op == VmOp.LESS) result = a < b;
+                    else result = a <= b;
+                    sp -= 2;
+                    if (!result) ip = target;
+                    break;
+                }
+                case VmOp.INCREMENT_LOCAL: {
+                    int slot = base + code[ip++];
+                    Object amount = constants[code[ip++]];
+                    Token operator = (Token)constants[code[ip++]];
+                    long value = stack[slot];
+                    if (isNumber(value)) {
+                        double step = (double)amount;
+                        stack[slot] = number(operator.type == TokenType.PLUS ? asNumber(value) + step : asNumber(value) - step);
+                        push(stack[slot], null);
+                    } else {
+                        Object result = binary(operator, box(value, refs[slot]), amount);
+                        push(result);
+                        stack[slot] = stack[sp - 1];
+                        refs[slot] = refs[sp - 1];
+                    }
+                    break;
+                }
+                case VmOp.JUMP_IF_FALSE:
+                    if (isFalsey(stack[sp - 1])) {
+                        ip = code[ip];
+                    } else {
+                        ip++;
+                    }
+                    break;
+                case VmOp.CALL: {
+                    int argumentCount = code[ip++];
+                    Token paren = (Token)constants[code[ip++]];
+                    Object callee = refs[sp - 1 - argumentCount];
+                    frame.ip = ip;
+                    if (callee instanceof VmClosure) {
+                        pushFrame((VmClosure)callee, callee, argumentCount, paren);
+                    } else {
+                        callValue(peek(argumentCount), argumentCount, paren);
+                    }
+                    frame = frames[frameCount - 1];
+                    function = frame.closure.function;
+                    code = function.code;
+                    constants = function.constants;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                }
+                case VmOp.CLOSURE: {
+                    VmFunction enclosed = (VmFunction)constants[code[ip++]];
+                    VmUpvalue[] upvalues = new VmUpvalue[enclosed.upvalueIndexes.length];
+                    for (int i = 0; i < upvalues.length; i++) {
+                        if (enclosed.upvalueIsLocal[i]) {
+                            upvalues[i] = captureUpvalue(base + enclosed.upvalueIndexes[i]);
+                        } else {
+                            upvalues[i] = frame.closure.upvalues[enclosed.upvalueIndexes[i]];
+                        }
+                    }
+                    push(OBJECT, new VmClosure(enclosed, upvalues, null));
+                    break;
+                }
+                case VmOp.CLOSE_UPVALUE:
+                    closeUpvalues(sp - 1);
+                    pop(1);
+                    break;
+                case VmOp.RETURN: {
+                    long bits = stack[sp - 1];
+                    Object ref = refs[sp - 1];
+                    closeUpvalues(base);
+                    Arrays.fill(refs, base, sp, null);
+                    sp = base;
+                    frameCount--;
+                    if (shadow != null && frameCount > 0) shadow.pop();
+                    if (LoxEvents.ENABLED && frames[frameCount].event != null) {
+                        LoxEvents.endCall(frames[frameCount].event, frames[frameCount].callee);
+                        frames[frameCount].event = null;
+                    }
+                    if (frameCount == exitDepth) {
+                        resultBits = bits;
+                        resultRef = ref;
+                        return;
+                    }
+                    push(bits, ref);
+                    frame = frames[frameCount - 1];
+                    function = frame.closure.function;
+                    code = function.code;
+                    constants = function.constants;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                }
+                case VmOp.IMPORT: {
+                    String file = (String)constants[code[ip++]];
+                    // the module runs in frames above this one, through invoke
+                    importModule(file, (Token)constants[code[ip++]]);
+                    break;
+                }
+                case VmOp.CLASS: {
+                    Token name = (Token)constants[code[ip++]];
+                    int methodCount = code[ip++];
+                    int superclassToken = code[ip++];
+
+                    LoxClass superclass = null;
+                    if (superclassToken != -1) {
+                        Object value = peek(methodCount);
+                        if (!(value instanceof LoxClass)) {
+                            throw new RuntimeError((Token)constants[superclassToken], "Superclass must be a class.");
+                        }
+                        superclass = (LoxClass)value;
+                    }
+                    Map<String, LoxMethod> methods = new HashMap<>();
+                    for (int i = sp - methodCount; i < sp; i++) {
+                        VmClosure method = (VmClosure)refs[i];
+                        methods.put(method.function.name.lexeme, method);
+                    }
+                    pop(methodCount);
+                    push(OBJECT, new LoxClass(name.lexeme, superclass, methods, globals));
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("Unknown opcode " + code[ip - 1]);
+            }
+        }
+    }
+}
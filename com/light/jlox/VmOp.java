@@ -0,0 +1,57 @@
+package com.light.jlox;
+
+/**
+ * Instruction set of the bytecode VM. Operands follow the opcode inline in
+ * the code array. Operands named "token" are constant-pool indices of the
+ * Token used for lookups and error reporting.
+ */
+final class VmOp {
+    static final int CONSTANT = 0;       // constant
+    static final int NIL = 1;
+    static final int TRUE = 2;
+    static final int FALSE = 3;
+    static final int POP = 4;
+    static final int GET_LOCAL = 5;      // slot
+    static final int SET_LOCAL = 6;      // slot
+    static final int GET_GLOBAL = 7;     // global slot, token
+    static final int DEFINE_GLOBAL = 8;  // global slot
+    static final int SET_GLOBAL = 9;     // global slot, token
+    static final int GET_UPVALUE = 10;   // index
+    static final int SET_UPVALUE = 11;   // index
+    static final int GET_PROPERTY = 12;  // token
+    static final int SET_PROPERTY = 13;  // token
+    static final int GET_SUPER = 14;     // token
+    static final int EQUAL = 15;
+    static final int NOT_EQUAL = 16;
+    static final int GREATER = 17;       // token
+    static final int GREATER_EQUAL = 18; // token
+    static final int LESS = 19;          // token
+    static final int LESS_EQUAL = 20;    // token
+    static final int ADD = 21;           // token
+    static final int SUBTRACT = 22;      // token
+    static final int MULTIPLY = 23;      // token
+    static final int DIVIDE = 24;        // token
+    static final int NOT = 25;
+    static final int NEGATE = 26;        // token
+    static final int PRINT = 27;
+    static final int JUMP = 28;          // target
+    static final int JUMP_IF_FALSE = 29; // target
+    static final int CALL = 30;          // argument count, token
+    static final int CLOSURE = 31;       // function constant
+    static final int CLOSE_UPVALUE = 32;
+    static final int RETURN = 33;
+    static final int CLASS = 34;         // name token, method count, superclass token or -1
+    static final int GET_INDEX = 35;     // token
+    static final int SET_INDEX = 36;     // token
+    static final int LOOP = 37;          // target, token
+
+    // superinstructions for shapes marked by Lowering
+    static final int INCREMENT_LOCAL = 38;   // slot, amount constant, token
+    static final int COMPARE_JUMP = 39;      // comparison opcode, target, token; jumps if false
+    static final int GET_PROPERTY_KEEP = 40; // token; leaves the instance under the value
+
+    static final int IMPORT = 41;        // file constant, token
+    static final int CHECK_INSTANCE = 42; // token; the target of a set, before its value runs
+
+    private VmOp() {}
+}
@@ -0,0 +1,21 @@
+package com.light.jlox;
+
+/**
+ * A captured variable. While open it refers to a live stack slot of the VM
+ * that owns it; once the slot goes out of scope the value is copied in and
+ * it is closed.
+ */
+final class VmUpvalue {
+    final VmInterpreter owner;
+    final int slot;
+    volatile boolean closed = false;
+    long bits;
+    Object ref;
+    VmUpvalue next;
+
+    VmUpvalue(VmInterpreter owner, int slot, VmUpvalue next) {
+        this.owner = owner;
+        this.slot = slot;
+        this.next = next;
+    }
+}
@@ -2,6 +2,7 @@ package com.light.tool;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -13,33 +14,40 @@ public class GenerateAst {
         }
         String outputDir = args[0];
 
-        defineAst(outputDir, "Expr", Arrays.asList(
-            "Assign : Token name, Expr value",
-            "Binary : Expr left, Token operator, Expr right",
+        List<String> exprTypes = Arrays.asList(
+            "Assign : Token name, Expr value : int depth, int slot, int upvalue, int fused",
+            "Binary : Expr left, Token operator, Expr right : int fused",
             "Call : Expr callee, Token paren, List<Expr> arguments",
             "Grouping : Expr expression",
             "Get : Expr object, Token name",
-            "Literal : Object value",
+            "Index : Expr object, Token bracket, Expr index",
+            "Literal : Token token, Object value",
             "Logical : Expr left, Token operator, Expr right",
-            "Set : Expr object, Token name, Expr value",
-            "Super : Token keyword, Token method",
-            "This : Token keyword",
+            "Set : Expr object, Token name, Expr value : int fused",
+            "SetIndex : Expr object, Token bracket, Expr index, Expr value",
+            "Super : Token keyword, Token method : int upvalue, int thisUpvalue",
+            "This : Token keyword : int upvalue",
             "Unary : Token operator, Expr right",
-            "Variable : Token name"
-        ));
+            "Variable : Token name : int depth, int slot, int upvalue"
+        );
 
-        defineAst(outputDir, "Stmt", Arrays.asList(
+        List<String> stmtTypes = Arrays.asList(
             "Block : List<Stmt> statements",
             "Break : Token keyword",
             "Class : Token name, Expr.Variable superclass, List<Stmt.Function> methods",
             "Expression : Expr expression",
-            "Function : Token name, List<Token> params, List<Stmt> body",
-            "If : Expr condition, Stmt thenBranch, Stmt elseBranch",
-            "Print : Expr expression",
+            "Function : Token name, List<Token> params, List<Stmt> body : Resolver.Capture[] captures, LoxScript script",
+            "If : Expr condition, Stmt thenBranch, Stmt elseBranch : int fused",
+            "Import : Token keyword, Token path : String file",
+            "Print : Token keyword, Expr expression",
             "Return : Token keyword, Expr value",
             "Var : Token name, Expr initializer",
-            "While : Expr condition, Stmt body"
-        ));
+            "While : Token keyword, Expr condition, Stmt body : int fused"
+        );
+
+        defineAst(outputDir, "Expr", exprTypes);
+        defineAst(outputDir, "Stmt", stmtTypes);
+        defineFlatAst(outputDir, exprTypes, stmtTypes);
     }
 
     private static void defineAst(
@@ -62,14 +70,14 @@ public class GenerateAst {
         for (String type: types) {
             String className = type.split(":")[0].trim();
             String fields = type.split(":")[1].trim();
-            defineType(writer, baseName, className, fields);
+            defineType(writer, baseName, className, fields, cachesOf(type));
         }
         writer.println("}");
         writer.close();
     }
 
     private static void defineType(
-        PrintWriter writer, String baseName, String className, String fieldList
+        PrintWriter writer, String baseName, String className, String fieldList, String[] caches
     ) {
         writer.println("    static class " + className + " extends " + baseName + " {");
         String[] fields;
@@ -82,6 +90,11 @@ public class GenerateAst {
         for (String field: fields) {
             writer.println("        final " + field.trim() + ";");
         }
+        // filled in by the resolver, -1 or null until then
+        for (String cache: caches) {
+            String initial = cache.trim().startsWith("int ") ? " = -1" : "";
+            writer.println("        " + cache.trim() + initial + ";");
+        }
 
         // constructor
         writer.println("        " + className + "("+ fieldList + ") {");
@@ -102,6 +115,225 @@ public class GenerateAst {
         writer.println("    }");
     }
 
+    // The flat encoding stores every node as [kind, depth, fields...] in one
+    // int[]. Child nodes and lists are stored as offsets into the same array,
+    // tokens and literal values as indices into side tables.
+    private static void defineFlatAst(
+        String outputDir, List<String> exprTypes, List<String> stmtTypes
+    ) throws IOException {
+        String path = outputDir + "/FlatAst.java";
+        PrintWriter writer = new PrintWriter(path, "UTF-8");
+
+        writer.println("package com.light.jlox;");
+        writer.println();
+        writer.println("import java.util.ArrayList;");
+        writer.println("import java.util.Arrays;");
+        writer.println("import java.util.List;");
+        writer.println();
+        writer.println("final class FlatAst {");
+
+        int kind = 0;
+        for (String type: exprTypes) {
+            writer.println("    static final int " + kindName("Expr", type) + " = " + kind++ + ";");
+        }
+        for (String type: stmtTypes) {
+            writer.println("    static final int " + kindName("Stmt", type) + " = " + kind++ + ";");
+        }
+        writer.println();
+        writer.println("    static final int KIND = 0;");
+        writer.println("    static final int DEPTH = 1;");
+        defineFlatOffsets(writer, "Expr", exprTypes);
+        defineFlatOffsets(writer, "Stmt", stmtTypes);
+        writer.println();
+        writer.println("    final int[] nodes;");
+        writer.println("    final Token[] tokens;");
+        writer.println("    final Object[] constants;");
+        writer.println("    final int statements;");
+        writer.println("    // the script flattened, for snapshots of its functions");
+        writer.println("    final LoxScript script;");
+        writer.println();
+        writer.println("    private FlatAst(int[] nodes, Token[] tokens, Object[] constants, int statements, LoxScript script) {");
+        writer.println("        this.nodes = nodes;");
+        writer.println("        this.tokens = tokens;");
+        writer.println("        this.constants = constants;");
+        writer.println("        this.statements = statements;");
+        writer.println("        this.script = script;");
+        writer.println("    }");
+        writer.println();
+        writer.println("    static FlatAst flatten(LoxScript script, List<Stmt> statements) {");
+        writer.println("        Builder builder = new Builder();");
+        writer.println("        int root = builder.stmts(statements);");
+        writer.println("        return new FlatAst(Arrays.copyOf(builder.nodes, builder.size),");
+        writer.println("            builder.tokens.toArray(new Token[0]), builder.constants.toArray(), root, script);");
+        writer.println("    }");
+        writer.println();
+
+        writer.println("    private static class Builder implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {");
+        writer.println("        private final List<Token> tokens = new ArrayList<>();");
+        writer.println("        private final List<Object> constants = new ArrayList<>();");
+        writer.println("        private int[] nodes = new int[256];");
+        writer.println("        private int size = 0;");
+        writer.println();
+        writer.println("        private int reserve(int length) {");
+        writer.println("            if (size + length > nodes.length) {");
+        writer.println("                nodes = Arrays.copyOf(nodes, Math.max(nodes.length * 2, size + length));");
+        writer.println("            }");
+        writer.println("            int node = size;");
+        writer.println("            size += length;");
+        writer.println("            return node;");
+        writer.println("        }");
+        writer.println();
+        writer.println("        private int node(int kind, int depth, int fields) {");
+        writer.println("            int node = reserve(2 + fields);");
+        writer.println("            nodes[node + KIND] = kind;");
+        writer.println("            nodes[node + DEPTH] = depth;");
+        writer.println("            return node;");
+        writer.println("        }");
+        writer.println();
+        writer.println("        // children may grow the array, so they are always flattened before the store");
+        writer.println("        private void set(int slot, int value) {");
+        writer.println("            nodes[slot] = value;");
+        writer.println("        }");
+        writer.println();
+        writer.println("        private int expr(Expr expr) {");
+        writer.println("            return expr == null ? -1 : expr.accept(this);");
+        writer.println("        }");
+        writer.println();
+        writer.println("        private int stmt(Stmt stmt) {");
+        writer.println("            return stmt == null ? -1 : stmt.accept(this);");
+        writer.println("        }");
+        writer.println();
+        writer.println("        private int token(Token token) {");
+        writer.println("            if (token == null) return -1;");
+        writer.println("            tokens.add(token);");
+        writer.println("            return tokens.size() - 1;");
+        writer.println("        }");
+        writer.println();
+        writer.println("        private int constant(Object value) {");
+        writer.println("            constants.add(value);");
+        writer.println("            return constants.size() - 1;");
+        writer.println("        }");
+        writer.println();
+        writer.println("        private int exprs(List<Expr> list) {");
+        writer.println("            int node = reserve(1 + list.size());");
+        writer.println("            nodes[node] = list.size();");
+        writer.println("            for (int i = 0; i < list.size(); i++) set(node + 1 + i, expr(list.get(i)));");
+        writer.println("            return node;");
+        writer.println("        }");
+        writer.println();
+        writer.println("        private int stmts(List<? extends Stmt> list) {");
+        writer.println("            int node = reserve(1 + list.size());");
+        writer.println("            nodes[node] = list.size();");
+        writer.println("            for (int i = 0; i < list.size(); i++) set(node + 1 + i, stmt(list.get(i)));");
+        writer.println("            return node;");
+        writer.println("        }");
+        writer.println();
+        writer.println("        private int tokens(List<Token> list) {");
+        writer.println("            int node = reserve(1 + list.size());");
+        writer.println("            nodes[node] = list.size();");
+        writer.println("            for (int i = 0; i < list.size(); i++) set(node + 1 + i, token(list.get(i)));");
+        writer.println("            return node;");
+        writer.println("        }");
+
+        for (String type: exprTypes) defineFlatBuilder(writer, "Expr", type);
+        for (String type: stmtTypes) defineFlatBuilder(writer, "Stmt", type);
+
+        writer.println("    }");
+        writer.println("}");
+        writer.close();
+    }
+
+    private static String kindName(String baseName, String type) {
+        return (baseName + "_" + type.split(":")[0].trim()).toUpperCase();
+    }
+
+    private static String[] fieldsOf(String type) {
+        String fieldList = type.split(":")[1].trim();
+        if (fieldList.isEmpty()) return new String[0];
+        return fieldList.split(",");
+    }
+
+    // After a second colon: fields the resolver fills in, not set by the parser.
+    private static String[] cachesOf(String type) {
+        String[] parts = type.split(":");
+        if (parts.length < 3) return new String[0];
+        return parts[2].trim().split(",");
+    }
+
+    // the flat encoding stores caches as plain fields after the others,
+    // except the resolver's depth, which every node has in its header, and
+    // the script a function comes from, which the FlatAst holds once
+    private static String[] flatFieldsOf(String type) {
+        String[] fields = fieldsOf(type);
+        List<String> all = new ArrayList<>(Arrays.asList(fields));
+        for (String cache: cachesOf(type)) {
+            if (!isDepth(cache) && !isScript(cache)) all.add(cache);
+        }
+        return all.toArray(new String[0]);
+    }
+
+    private static boolean isDepth(String cache) {
+        return cache.trim().equals("int depth");
+    }
+
+    private static boolean isScript(String cache) {
+        return cache.trim().equals("LoxScript script");
+    }
+
+    private static boolean hasDepth(String type) {
+        return Arrays.stream(cachesOf(type)).anyMatch(GenerateAst::isDepth);
+    }
+
+    private static void defineFlatOffsets(PrintWriter writer, String baseName, List<String> types) {
+        for (String type: types) {
+            String[] fields = flatFieldsOf(type);
+            for (int i = 0; i < fields.length; i++) {
+                String name = fields[i].trim().split(" ")[1];
+                writer.println("    static final int " + kindName(baseName, type) + "_" + name.toUpperCase() + " = " + (2 + i) + ";");
+            }
+        }
+    }
+
+    private static void defineFlatBuilder(PrintWriter writer, String baseName, String type) {
+        String className = type.split(":")[0].trim();
+        String[] fields = flatFieldsOf(type);
+        String param = baseName.toLowerCase();
+        String depth = hasDepth(type) ? param + ".depth" : "-1";
+
+        writer.println();
+        writer.println("        @Override");
+        writer.println("        public Integer visit" + className + baseName + "(" + baseName + "." + className + " " + param + ") {");
+        writer.println("            int node = node(" + kindName(baseName, type) + ", " + depth + ", " + fields.length + ");");
+        for (String field: fields) {
+            String fieldType = field.trim().split(" ")[0];
+            String name = field.trim().split(" ")[1];
+            String value = param + "." + name;
+            String encoded;
+            if (fieldType.equals("int")) {
+                encoded = value;
+            } else if (fieldType.endsWith("[]")) {
+                encoded = "constant(" + value + ")";
+            } else if (fieldType.equals("Token")) {
+                encoded = "token(" + value + ")";
+            } else if (fieldType.equals("Object") || fieldType.equals("String")) {
+                encoded = "constant(" + value + ")";
+            } else if (fieldType.equals("List<Expr>")) {
+                encoded = "exprs(" + value + ")";
+            } else if (fieldType.equals("List<Token>")) {
+                encoded = "tokens(" + value + ")";
+            } else if (fieldType.startsWith("List<")) {
+                encoded = "stmts(" + value + ")";
+            } else if (fieldType.startsWith("Expr")) {
+                encoded = "expr(" + value + ")";
+            } else {
+                encoded = "stmt(" + value + ")";
+            }
+            writer.println("            set(node + " + kindName(baseName, type) + "_" + name.toUpperCase() + ", " + encoded + ");");
+        }
+        writer.println("            return node;");
+        writer.println("        }");
+    }
+
     private static void defineVisitor(PrintWriter writer, String baseName, List<String> types) {
         writer.println("    interface Visitor<R> {");
         for (String type: types) {
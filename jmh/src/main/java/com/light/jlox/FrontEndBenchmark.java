@@ -0,0 +1,66 @@
+package com.light.jlox;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Scanning, parsing and resolving a large generated program, each stage
+ * on its own so a regression can be pinned to one of them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrontEndBenchmark {
+    @Param({"1000", "10000"})
+    int lines;
+
+    private String source;
+    private List<Token> tokens;
+    private List<Stmt> statements;
+
+    @Setup
+    public void setup() {
+        source = Workloads.generate(lines);
+        ErrorReporter reporter = new ErrorReporter();
+        tokens = new Scanner(source, reporter).scanTokens();
+        statements = new Parser(tokens, reporter).parse();
+        if (reporter.hadError()) throw new IllegalStateException(reporter.errors().toString());
+    }
+
+    @Benchmark
+    public List<Token> scan() {
+        return new Scanner(source, new ErrorReporter()).scanTokens();
+    }
+
+    @Benchmark
+    public List<Stmt> parse() {
+        return new Parser(tokens, new ErrorReporter()).parse();
+    }
+
+    @Benchmark
+    public Resolver resolve() {
+        Resolver resolver = new Resolver(new ErrorReporter(), new Globals.Slots());
+        resolver.resolve(statements);
+        return resolver;
+    }
+
+    @Benchmark
+    public LoxScript compile() {
+        return new LoxEngine().compile(source);
+    }
+}
@@ -0,0 +1,66 @@
+package com.light.jlox;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Creates instances with a given number of fields and keeps them
+ * reachable, so gc.alloc.rate.norm reads as the bytes one instance costs
+ * with its fields, values excluded: they are preallocated. The widths are
+ * those LoxInstance lays out differently; `jlox check` holds each to a
+ * fixed budget.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InstanceBenchmark {
+    private static final int INSTANCES = 1000;
+
+    @Param({"0", "1", "2", "8", "9", "24", "25", "100"})
+    int fields;
+
+    private LoxClass klass;
+    private Token[] names;
+    private Object[] values;
+    private final LoxInstance[] instances = new LoxInstance[INSTANCES];
+
+    @Setup
+    public void setup() {
+        klass = new LoxClass("Record", null, new HashMap<>(), new Globals(new Globals.Slots()));
+        names = new Token[fields];
+        values = new Object[fields];
+        for (int i = 0; i < fields; i++) {
+            names[i] = new Token(TokenType.IDENTIFIER, "field" + i, null, 1);
+            values[i] = (double)i + 0.5;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INSTANCES)
+    public LoxInstance[] create() {
+        for (int i = 0; i < INSTANCES; i++) {
+            LoxInstance instance = new LoxInstance(klass);
+            for (int j = 0; j < names.length; j++) {
+                instance.set(names[j], values[j]);
+            }
+            instances[i] = instance;
+        }
+        return instances;
+    }
+}
@@ -0,0 +1,49 @@
+package com.light.jlox;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Runs each bundled workload on each engine. The script is compiled once;
+ * every invocation gets a fresh context so globals don't carry over.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBenchmark {
+    @Param({"fib", "binary_trees", "nbody", "strings", "dispatch", "closures", "sieve", "word_count", "wide_instances"})
+    String workload;
+
+    @Param({"TREE", "FLAT", "VM"})
+    LoxEngine.Kind engine;
+
+    private LoxEngine lox;
+    private LoxScript script;
+
+    @Setup
+    public void setup() {
+        lox = new LoxEngine(engine);
+        script = lox.compile(Workloads.load(workload));
+        if (script.hasErrors()) throw new IllegalStateException(script.errors().toString());
+    }
+
+    @Benchmark
+    public boolean run() {
+        LoxContext context = lox.newContext(Workloads.NULL, System.err);
+        return context.run(script);
+    }
+}
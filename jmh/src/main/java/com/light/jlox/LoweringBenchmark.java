@@ -0,0 +1,52 @@
+package com.light.jlox;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Runs the workload written around each fused form with lowering on and
+ * off, so every form's gain can be read off per engine.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoweringBenchmark {
+    @Param({"fused_increment", "fused_constant", "fused_compare", "fused_get_add_set"})
+    String workload;
+
+    @Param({"TREE", "FLAT", "VM"})
+    LoxEngine.Kind engine;
+
+    @Param({"true", "false"})
+    boolean lowering;
+
+    private LoxEngine lox;
+    private LoxScript script;
+
+    @Setup
+    public void setup() {
+        lox = new LoxEngine(engine, lowering);
+        script = lox.compile(Workloads.load(workload));
+        if (script.hasErrors()) throw new IllegalStateException(script.errors().toString());
+    }
+
+    @Benchmark
+    public boolean run() {
+        LoxContext context = lox.newContext(Workloads.NULL, System.err);
+        return context.run(script);
+    }
+}
@@ -0,0 +1,69 @@
+package com.light.jlox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/** Loads the Lox programs the benchmarks run: the benchmarks/ corpus, bundled as resources. */
+final class Workloads {
+    // output is discarded, but still formatted and written like a real run's
+    static final PrintStream NULL = new PrintStream(OutputStream.nullOutputStream());
+
+    private Workloads() {}
+
+    static String load(String name) {
+        try (InputStream in = Workloads.class.getResourceAsStream("workloads/" + name + ".lox")) {
+            if (in == null) throw new IllegalArgumentException("No workload named " + name + ".");
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * A program of roughly the given number of lines mixing every kind of
+     * declaration and statement, for timing the front end on large input.
+     */
+    static String generate(int lines) {
+        StringBuilder source = new StringBuilder();
+        int unit = 0;
+        while (countLines(source) < lines) {
+            source.append("class Point").append(unit).append(" {\n")
+                .append("    init(x, y) {\n")
+                .append("        this.x = x;\n")
+                .append("        this.y = y;\n")
+                .append("    }\n")
+                .append("    length() {\n")
+                .append("        return this.x * this.x + this.y * this.y;\n")
+                .append("    }\n")
+                .append("}\n")
+                .append("fun work").append(unit).append("(n) {\n")
+                .append("    var total = 0;\n")
+                .append("    for (var i = 0; i < n; i = i + 1) {\n")
+                .append("        if (i > 2 and !(i == 7)) {\n")
+                .append("            total = total + Point").append(unit).append("(i, -i).length();\n")
+                .append("        } else {\n")
+                .append("            total = total - 1.5;\n")
+                .append("        }\n")
+                .append("    }\n")
+                .append("    var items = list();\n")
+                .append("    append(items, \"work\" + \"").append(unit).append("\");\n")
+                .append("    return total + length(items);\n")
+                .append("}\n")
+                .append("print work").append(unit).append("(3);\n");
+            unit++;
+        }
+        return source.toString();
+    }
+
+    private static int countLines(CharSequence text) {
+        int count = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') count++;
+        }
+        return count;
+    }
+}